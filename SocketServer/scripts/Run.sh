@@ -38,8 +38,18 @@ fi
 echo "Compilation successful."
 echo ""
 
+# Number of Monitor replicas (e.g. MONITORS=3 ./run.sh); every process must agree on it.
+# A Monitor leads only with a majority of all of them, so use 1 or an odd count of at least 3.
+# Extra JVM options from the environment (e.g. JAVA_OPTS=-XX:StartFlightRecording=...) are kept.
+MONITORS=${MONITORS:-1}
+if [ "$MONITORS" -eq 2 ]; then
+    echo "MONITORS=2 tolerates no Monitor failure (a majority of 2 is both). Use 1, 3 or 5."
+    exit 1
+fi
+JAVA_OPTS="${JAVA_OPTS} -Dsrms.monitors=$MONITORS"
+
 # Clean up any delay flags from previous runs
-rm -f /tmp/heartbeat_delay.flag
+rm -f /tmp/heartbeat_delay.flag /tmp/srms-faults.conf
 
 # Function to open new terminal based on OS
 open_terminal() {
@@ -85,36 +95,38 @@ if [ "$OS" == "macos" ]; then
     sleep 0.5
 fi
 
-# Start Monitor in a new Terminal window
-echo "Starting Monitor on port 9000..."
-open_terminal "MONITOR" "java -cp src Monitor"
+# Start Monitor(s) in new Terminal windows (Monitor #i uses ports 9000+10i / 9001+10i)
+for ((i = 0; i < MONITORS; i++)); do
+    echo "Starting Monitor $i on port $((9000 + i * 10))..."
+    open_terminal "MONITOR $i" "java $JAVA_OPTS -cp src Monitor $i"
+done
 sleep 1
 
 # Start Server 1 (Primary - port 8090) in separate process
 echo "Starting Server 1 (port 8090)..."
-open_terminal "SERVER 1 (8090)" "java -cp src ServerNode 8090 PRIMARY"
+open_terminal "SERVER 1 (8090)" "java $JAVA_OPTS -cp src ServerNode 8090 PRIMARY"
 sleep 1
 
 # Start Server 2 (Backup - port 8089) in separate process
 echo "Starting Server 2 (port 8089)..."
-open_terminal "SERVER 2 (8089)" "java -cp src ServerNode 8089 BACKUP"
+open_terminal "SERVER 2 (8089)" "java $JAVA_OPTS -cp src ServerNode 8089 BACKUP"
 sleep 1
 
 # Start Server 3 (Backup - port 8088) in separate process
 echo "Starting Server 3 (port 8088)..."
-open_terminal "SERVER 3 (8088)" "java -cp src ServerNode 8088 BACKUP"
+open_terminal "SERVER 3 (8088)" "java $JAVA_OPTS -cp src ServerNode 8088 BACKUP"
 sleep 1
 
 
 # Start Client
 echo "Starting Client..."
-open_terminal "CLIENT" "java -cp src Client"
+open_terminal "CLIENT" "java $JAVA_OPTS -cp src Client"
 
 echo ""
 echo "========================================="
 echo "All components started successfully!"
 echo "========================================="
-echo "Monitor:  Port 9000 (heartbeat), 9001 (client API)"
+echo "Monitor:  Port 9000 (heartbeat), 9001 (client API) [$MONITORS monitor(s)]"
 echo "Server 1: Port 8090"
 echo "Server 2: Port 8089"
 echo "Server 3: Port 8088"
@@ -17,10 +17,8 @@ echo "$DELAY_SECONDS" > "$HEARTBEAT_DELAY_FLAG"
 
 echo "✓ Heartbeat delay flag created at: $HEARTBEAT_DELAY_FLAG"
 echo ""
-echo "Your Monitor or ServerProcess code should:"
-echo "  1. Check if this file exists"
-echo "  2. Read the delay value from it"
-echo "  3. Sleep for that duration before processing heartbeats"
+echo "Every server delays each heartbeat by this amount (picked up within 250ms)."
+echo "For per-link faults (delay, jitter, drop, partition) use ./inject-fault.sh"
 echo ""
 echo "To remove the delay, run: rm $HEARTBEAT_DELAY_FLAG"
 echo "========================================="
@@ -0,0 +1,34 @@
+#!/bin/bash
+# inject-fault.sh - Add or clear network faults on the running cluster
+# Usage: ./inject-fault.sh "<from>><to> [delay=ms] [jitter=ms] [drop=0..1] [partition]"
+#        ./inject-fault.sh clear
+# Endpoints: node port (8090), monitor0, client; "*" and "monitor*" are wildcards.
+# Examples:
+#   ./inject-fault.sh "8090>monitor0 delay=3000 jitter=500"   # slow heartbeats from 8090
+#   ./inject-fault.sh "monitor*>8090 partition"               # 8090 can't hear any Monitor
+#   ./inject-fault.sh "8090>8089 drop=0.5"                    # lose half the replication batches
+
+FAULTS_FILE="${SRMS_FAULTS_FILE:-/tmp/srms-faults.conf}"
+
+echo "========================================="
+echo "Fault Injection"
+echo "========================================="
+echo "Timestamp: $(date '+%Y-%m-%d %H:%M:%S.%3N')"
+
+if [ -z "$1" ]; then
+    echo "Usage: $0 \"<from>><to> [delay=ms] [jitter=ms] [drop=0..1] [partition]\" | clear"
+    exit 1
+fi
+
+if [ "$1" = "clear" ]; then
+    rm -f "$FAULTS_FILE"
+    echo "✓ All faults cleared"
+else
+    echo "$*" >> "$FAULTS_FILE"
+    echo "✓ Added rule: $*"
+fi
+
+echo ""
+echo "Active rules ($FAULTS_FILE):"
+cat "$FAULTS_FILE" 2>/dev/null || echo "  (none)"
+echo "========================================="
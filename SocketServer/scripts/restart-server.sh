@@ -3,6 +3,9 @@
 
 PORT=${1}
 
+# Must match the MONITORS count the system was started with
+MONITORS=${MONITORS:-1}
+
 # Get the absolute path to the project root
 PROJECT_ROOT="$(cd "$(dirname "$0")/.." && pwd)"
 
@@ -21,7 +24,7 @@ restart_server_on_port() {
 
     echo "Starting $server_name on port $port..."
 
-    local cmd="cd '$PROJECT_ROOT' && echo '=== RESTARTED: $server_name (Port $port) ===' && java -cp src ServerNode $port $role"
+    local cmd="cd '$PROJECT_ROOT' && echo '=== RESTARTED: $server_name (Port $port) ===' && java -Dsrms.monitors=$MONITORS -cp src ServerNode $port $role"
 
     osascript -e 'tell application "Terminal" to activate'
     osascript -e "tell application \"Terminal\" to do script \"$cmd\""
@@ -89,7 +92,7 @@ fi
 echo "Starting ServerNode on port $PORT (role BACKUP)..."
 
 osascript -e 'tell application "Terminal" to activate'
-osascript -e "tell application \"Terminal\" to do script \"cd '$PROJECT_ROOT' && java -cp src ServerNode $PORT BACKUP\""
+osascript -e "tell application \"Terminal\" to do script \"cd '$PROJECT_ROOT' && java -Dsrms.monitors=$MONITORS -cp src ServerNode $PORT BACKUP\""
 
 echo "✓ Server restarted successfully"
 echo "========================================="
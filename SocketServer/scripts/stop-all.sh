@@ -8,8 +8,8 @@ echo "========================================="
 echo "Timestamp: $(date '+%Y-%m-%d %H:%M:%S.%3N')"
 echo ""
 
-PORTS=(8090 8089 8088 9000)
-NAMES=("Primary Server" "Backup Server 1" "Backup Server 2" "Monitor")
+PORTS=(8090 8089 8088 9000 9010 9020)
+NAMES=("Primary Server" "Backup Server 1" "Backup Server 2" "Monitor" "Monitor 1" "Monitor 2")
 KILLED_COUNT=0
 
 for i in "${!PORTS[@]}"; do
@@ -29,7 +29,7 @@ for i in "${!PORTS[@]}"; do
 done
 
 # Clean up any delay flags
-rm -f /tmp/heartbeat_delay.flag
+rm -f /tmp/heartbeat_delay.flag /tmp/srms-faults.conf
 
 echo ""
 echo "✓ Stopped $KILLED_COUNT process(es)"
@@ -1,75 +1,319 @@
 import java.io.BufferedReader;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.PrintWriter;
+import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.util.Scanner;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Client class implementing Singleton pattern.
- * Ensures only one client instance manages connections to the primary server.
+ * Client for the SRMS cluster.
+ * A Client can be created any number of times and used by many threads at once. Callers open
+ * Sessions and send messages through them; all sessions of a Client share primary discovery
+ * (PrimaryDirectory, shared between Clients by default) and a bounded pool of connections to the
+ * primary, so one JVM can drive thousands of sessions. main() runs the interactive console client.
  */
 public class Client {
 
-    // --- SINGLETON PATTERN ---
-    private static Client instance;
-    
-    private Client() {}
+    // Java entry point — interactive console session
+    public static void main(String[] args) {
+        new Client().runConsole(System.in);
+    }
+
+    private static final String HOST = "localhost";
+    private static final int RECONNECT_INTERVAL = 5000; // 5 seconds
+    private static final int MAX_BACKOFF = 5000;
+    private static final int DEFAULT_MAX_CONNECTIONS = 32;
+    // How long a send may wait for its reply, and for a free pooled connection
+    private static final int REPLY_TIMEOUT_MS = 5000;
+    // Enough attempts (with backoff) to ride out a failover
+    private static final int MAX_ATTEMPTS = 12;
+
+    private final PrimaryDirectory directory;
+
+    // --- REQUEST IDS ---
+    // Every message is sent as REQ:[client id]-[n]:[message], and a retry resends the same ID,
+    // so the primary applies it once even if the reply was lost in a failover
+    private final String clientId = Long.toHexString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE);
+    private final AtomicLong nextRequest = new AtomicLong();
+
+    // Gives a message the next request ID of this Client
+    private String withRequestId(String message) {
+        return RequestCache.PREFIX + clientId + "-" + nextRequest.incrementAndGet() + ":" + message;
+    }
+
+    // --- CONNECTION POOL ---
+    // Idle connections, most recently used first; permits bound the connections in use
+    private final Deque<PooledConnection> idle = new ConcurrentLinkedDeque<>();
+    private final Semaphore connectionPermits;
+
+    public Client() {
+        this(PrimaryDirectory.shared(), DEFAULT_MAX_CONNECTIONS);
+    }
+
+    /**
+     * @param directory      primary discovery to use (PrimaryDirectory.shared() to share it JVM-wide)
+     * @param maxConnections most connections to the primary this Client keeps open at once
+     */
+    public Client(PrimaryDirectory directory, int maxConnections) {
+        this.directory = directory;
+        this.connectionPermits = new Semaphore(maxConnections);
+    }
 
-    public static synchronized Client getInstance() {
-        if (instance == null) {
-            instance = new Client();
+    public Session openSession() {
+        return new Session();
+    }
+
+    /**
+     * Sends one message from a new session and returns the primary's reply.
+     */
+    public String send(String message) throws IOException {
+        return openSession().send(message);
+    }
+
+    /**
+     * Closes the idle pooled connections. Connections in use are closed when they are returned.
+     */
+    public void close() {
+        PooledConnection conn;
+        while ((conn = idle.pollFirst()) != null) {
+            conn.close();
         }
-        return instance;
     }
 
-    // Java entry point — calls singleton instance
-    public static void main(String[] args) {
-        Client.getInstance().run(args);
+    /**
+     * One logical client of the cluster. send() is synchronous and returns the primary's reply
+     * to that message, retrying through BUSY replies and failovers. Sessions are cheap; a
+     * session serves one caller at a time, so give each thread its own.
+     */
+    public final class Session {
+
+        // Consecutive BUSY replies; grows the backoff exponentially
+        private int busyStreak = 0;
+
+        public synchronized String send(String message) throws IOException {
+            String request = withRequestId(message);
+            IOException lastFailure = null;
+
+            for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+                if (attempt > 0) {
+                    pause(lastFailure instanceof BusyException
+                            ? ((BusyException) lastFailure).backoff
+                            : backoff(100, attempt - 1));
+                }
+
+                InetSocketAddress primary = directory.primary();
+                if (primary == null) {
+                    lastFailure = new IOException("No primary available");
+                    continue;
+                }
+
+                PooledConnection conn;
+                try {
+                    conn = borrow(primary);
+                } catch (BusyException e) {
+                    // Our own connection pool is saturated: back off locally, the primary is fine
+                    lastFailure = new BusyException(e.getMessage(), backoff(ClusterConfig.BUSY_RETRY_AFTER_MS, busyStreak++));
+                    continue;
+                } catch (IOException e) {
+                    // Could not connect: the primary may be gone
+                    directory.invalidate(primary);
+                    lastFailure = e;
+                    continue;
+                }
+
+                boolean reusable = false;
+                try {
+                    String reply = conn.request(request);
+                    reusable = true;
+
+                    if (reply.startsWith("BUSY|")) {
+                        lastFailure = new BusyException(reply, busyBackoff(reply, busyStreak++));
+                    } else if (reply.startsWith("NOT PRIMARY")) {
+                        // Fenced or demoted: the Monitor knows (or will soon know) the new primary
+                        directory.invalidate(primary);
+                        lastFailure = new IOException(reply);
+                    } else {
+                        busyStreak = 0;
+                        return reply;
+                    }
+                } catch (IOException e) {
+                    // A pooled connection may simply have been reaped; only a fresh one proves the primary is gone
+                    if (!conn.reused) {
+                        directory.invalidate(primary);
+                    }
+                    lastFailure = e;
+                } finally {
+                    release(conn, reusable);
+                }
+            }
+            throw lastFailure;
+        }
     }
 
-    private final String HOST = "localhost";
-    private final int MONITOR_API_PORT = 9001; // Monitor's API port
-    private final int RECONNECT_INTERVAL = 5000; // 5 seconds
+    // The server's BUSY reply, carried to the next attempt with the backoff to apply
+    private static final class BusyException extends IOException {
+        private static final long serialVersionUID = 1L;
+        final long backoff;
+
+        BusyException(String reply, long backoff) {
+            super(reply);
+            this.backoff = backoff;
+        }
+    }
 
     /**
-     * Queries the Monitor for the port of the current Primary server.
-     * @return The port number of the current Primary, or 0 if monitor/connection fails.
+     * Backoff for a BUSY|[retry ms] reply: exponential in the number of consecutive BUSY
+     * replies, starting from the server's hint, with jitter.
      */
-    private int getPrimaryPortFromMonitor() {
-        System.out.println("Querying Monitor for current Primary...");
-        try (Socket socket = new Socket(HOST, MONITOR_API_PORT);
-             PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+    private static long busyBackoff(String reply, int streak) {
+        long retryAfter;
+        try {
+            retryAfter = Long.parseLong(reply.substring(reply.indexOf('|') + 1).trim());
+        } catch (NumberFormatException e) {
+            retryAfter = 100;
+        }
+        return backoff(retryAfter, streak);
+    }
+
+    private static long backoff(long base, int streak) {
+        return Math.min(base << Math.min(streak, 6), MAX_BACKOFF) + ThreadLocalRandom.current().nextLong(base + 1);
+    }
+
+    private static void pause(long ms) throws InterruptedIOException {
+        try {
+            TimeUnit.MILLISECONDS.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry");
+        }
+    }
+
+    // One connection to the primary, used by one session at a time
+    private static final class PooledConnection {
+        final InetSocketAddress address;
+        final Socket socket;
+        final BufferedReader in;
+        final PrintWriter out;
+        long lastUsed = System.currentTimeMillis();
+        boolean reused = false;
 
-            // Set a short read timeout to prevent blocking indefinitely if monitor is silent
-            socket.setSoTimeout(2000);
+        PooledConnection(InetSocketAddress address) throws IOException {
+            this.address = address;
+            this.socket = FaultInjector.connect(FaultInjector.CLIENT, FaultInjector.node(address.getPort()),
+                    address.getHostString(), address.getPort(), 2000);
+            socket.setSoTimeout(REPLY_TIMEOUT_MS);
+            this.in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            this.out = new PrintWriter(socket.getOutputStream(), false);
+        }
 
-            out.println("GET_PRIMARY");
-            String response = in.readLine();
+        // Sends one message and returns its reply, answering any keepalive PINGs on the way
+        String request(String message) throws IOException {
+            if (!FaultInjector.deliver(FaultInjector.CLIENT, FaultInjector.node(address.getPort()))) {
+                throw new IOException("Message dropped (fault injection)");
+            }
+            out.println(message);
+            out.flush();
+            if (out.checkError()) {
+                throw new IOException("Connection lost during send");
+            }
 
-            if (response != null && response.matches("\\d+")) {
-                int primaryPort = Integer.parseInt(response);
-                System.out.println("Monitor reports Primary is on port: " + primaryPort);
-                return primaryPort;
-            } else {
-                System.out.println("Monitor returned invalid response or error: " + response);
-                return 0;
+            String line;
+            while ((line = in.readLine()) != null) {
+                if ("PING".equals(line)) {
+                    out.println("PONG");
+                    out.flush();
+                } else if (!"PONG".equals(line)) {
+                    return line;
+                }
             }
-        } catch (IOException e) {
-            System.err.println("Failed to connect to Monitor on port " + MONITOR_API_PORT + ". Falling back to fixed list.");
-            return 0; // Return 0 on failure
+            throw new EOFException("Server closed the connection");
+        }
+
+        void close() {
+            try { socket.close(); } catch (IOException ignored) {}
         }
     }
 
-    // Main client loop - renamed from  king main to run for singleton
-    public void run(String[] args) {
-        Scanner consoleInput = new Scanner(System.in);
+    /**
+     * @throws BusyException if no pooled connection became free in time (local backpressure)
+     * @throws IOException if a new connection to the primary could not be opened
+     */
+    private PooledConnection borrow(InetSocketAddress primary) throws IOException {
+        try {
+            if (!connectionPermits.tryAcquire(REPLY_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                throw new BusyException("Timed out waiting for a pooled connection", 0);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a connection");
+        }
+
+        try {
+            long now = System.currentTimeMillis();
+            PooledConnection conn;
+            while ((conn = idle.pollFirst()) != null) {
+                // Skip connections to a former primary and ones the server may be about to reap
+                if (conn.address.equals(primary) && now - conn.lastUsed < ClusterConfig.KEEPALIVE_INTERVAL_MS) {
+                    conn.reused = true;
+                    return conn;
+                }
+                conn.close();
+            }
+            return new PooledConnection(primary);
+        } catch (IOException | RuntimeException e) {
+            connectionPermits.release();
+            throw e;
+        }
+    }
+
+    private void release(PooledConnection conn, boolean reusable) {
+        if (reusable) {
+            conn.lastUsed = System.currentTimeMillis();
+            idle.addFirst(conn);
+        } else {
+            conn.close();
+        }
+        connectionPermits.release();
+    }
+
+    // --- CONSOLE SESSION ---
+
+    // Host of the current Primary as reported by the Monitor (nodes may run on other hosts)
+    private volatile String primaryHost = HOST;
+
+    // --- BACKPRESSURE ---
+    // Messages sent but not yet answered, oldest first (the server answers in order), with their
+    // request IDs; they are resent after a reconnect, and the primary drops any it already applied
+    private final Deque<String> unacknowledged = new ConcurrentLinkedDeque<>();
+    // Consecutive BUSY replies; grows the backoff exponentially
+    private volatile int busyStreak = 0;
+    // Set when the server refused the connection itself; replaces the normal reconnect wait once
+    private volatile long connectBackoff = 0;
+
+    /**
+     * Interactive console session: reads messages from the given input and prints the replies.
+     */
+    public void runConsole(InputStream input) {
+        BufferedReader consoleInput = new BufferedReader(new InputStreamReader(input));
 
         while (true) {
             // 1. QUERY MONITOR FOR CURRENT PRIMARY
-            int monitorReportedPrimary = getPrimaryPortFromMonitor();
+            System.out.println("Querying Monitor for current Primary...");
+            InetSocketAddress primary = directory.refresh();
+            int monitorReportedPrimary = primary != null ? primary.getPort() : 0;
+            if (primary != null) {
+                primaryHost = primary.getHostString();
+                System.out.println("Monitor reports Primary is on " + primaryHost + " port: " + monitorReportedPrimary);
+            }
 
             if (monitorReportedPrimary <= 0) {
                 // Monitor didn't return a valid primary - system may be down
@@ -91,26 +335,70 @@ public class Client {
                 // If connectAndRun returns without an exception, it means the user typed 'exit' or the server died.
                 // Loop back to query monitor for new primary.
             } catch (IOException e) {
-                System.out.println("Connection to primary on port " + monitorReportedPrimary + " failed.");
-                System.out.println("Waiting for monitor to detect failure and promote new primary...");
-                System.out.println("Retrying in " + RECONNECT_INTERVAL / 1000 + " seconds...");
+                long wait = RECONNECT_INTERVAL;
+                if (connectBackoff > 0) {
+                    // The primary is alive but overloaded: come back after its retry-after hint
+                    wait = connectBackoff;
+                    connectBackoff = 0;
+                    System.out.println("Primary on port " + monitorReportedPrimary + " is busy. Retrying in " + wait + "ms...");
+                } else {
+                    System.out.println("Connection to primary on port " + monitorReportedPrimary + " failed.");
+                    System.out.println("Waiting for monitor to detect failure and promote new primary...");
+                    System.out.println("Retrying in " + RECONNECT_INTERVAL / 1000 + " seconds...");
+                }
                 try {
-                    TimeUnit.MILLISECONDS.sleep(RECONNECT_INTERVAL);
+                    TimeUnit.MILLISECONDS.sleep(wait);
                 } catch (InterruptedException ie) {
                     Thread.currentThread().interrupt();
                     break;
                 }
             }
         }
-        consoleInput.close();
+        try { consoleInput.close(); } catch (IOException ignored) {}
+    }
+
+    /**
+     * Handles a BUSY|[retry ms] reply: backs off exponentially (with jitter) from the server's
+     * hint, then resends the rejected message. A BUSY with nothing outstanding means the
+     * connection itself was refused, so the backoff is applied to the reconnect instead.
+     */
+    private void handleBusy(String reply, PrintWriter out) {
+        long backoff = busyBackoff(reply, busyStreak);
+        busyStreak++;
+
+        String rejected = unacknowledged.pollFirst();
+        if (rejected == null) {
+            connectBackoff = backoff;
+            return;
+        }
+
+        System.out.println("Server busy. Retrying \"" + RequestCache.command(rejected) + "\" in " + backoff + "ms...");
+        try {
+            TimeUnit.MILLISECONDS.sleep(backoff);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        unacknowledged.addLast(rejected);
+        out.println(rejected);
+        out.flush();
     }
 
-    private void connectAndRun(Scanner consoleInput, int port) throws IOException {
-        try (Socket socket = new Socket(HOST, port);
-             PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+    private void connectAndRun(BufferedReader consoleInput, int port) throws IOException {
+        // Typed lines are buffered and sent together once no more input is waiting (e.g. a paste)
+        try (Socket socket = FaultInjector.connect(FaultInjector.CLIENT, FaultInjector.node(port), primaryHost, port, 2000);
+             PrintWriter out = new PrintWriter(socket.getOutputStream(), false);
              BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
 
             System.out.println("Connected to server on port " + port + ". Type messages to send. Type 'exit' to quit.");
+            if (!unacknowledged.isEmpty()) {
+                // Replies lost with the old connection: resend under the same IDs
+                System.out.println("Resending " + unacknowledged.size() + " unacknowledged message(s)...");
+                for (String pending : unacknowledged) {
+                    out.println(pending);
+                }
+                out.flush();
+            }
 
             // Flag to track if the connection is still considered alive from the perspective of the server handler
             final boolean[] connectionActive = {true};
@@ -120,7 +408,22 @@ public class Client {
                 try {
                     String serverMessage;
                     while (!Thread.currentThread().isInterrupted() && (serverMessage = in.readLine()) != null) {
-                        System.out.println("from server: " + serverMessage);
+                        if ("PING".equals(serverMessage)) {
+                            // Server keepalive: answer so the connection is not reaped as idle
+                            out.println("PONG");
+                            out.flush();
+                        } else if (serverMessage.startsWith("BUSY|")) {
+                            handleBusy(serverMessage, out);
+                        } else if (serverMessage.startsWith("NOT PRIMARY")) {
+                            // Fenced or demoted, as in Session.send: keep the message (and any sent after
+                            // it) unacknowledged and reconnect to the primary the Monitor reports next
+                            System.out.println("from server: " + serverMessage + ". Reconnecting...");
+                            break;
+                        } else {
+                            busyStreak = 0;
+                            unacknowledged.pollFirst();
+                            System.out.println("from server: " + serverMessage);
+                        }
                     }
                 } catch (IOException e) {
                     if (!Thread.currentThread().isInterrupted()) {
@@ -140,28 +443,36 @@ public class Client {
             // Main loop to send user input
             while (connectionActive[0] && !Thread.interrupted()) { // CRITICAL CHECK
 
+                // Send everything typed so far before blocking for more input
+                if (!consoleInput.ready()) {
+                    out.flush();
+                    if (out.checkError()) {
+                        // **FIXED LOGIC**: If a send error occurs (socket failure), break immediately.
+                        System.out.println("Connection lost during send operation.");
+                        break;
+                    }
+                }
+
                 // Block until there's input
-                if (!consoleInput.hasNextLine()) {
+                String message = consoleInput.readLine();
+                if (message == null) {
                     // This typically only happens if System.in is closed, but good safety check
                     break;
                 }
 
-                String message = consoleInput.nextLine();
-
                 if (message.equalsIgnoreCase("exit")) {
                     System.out.println("Client disconnecting by user.");
                     userExited = true;
                     break;
                 }
 
-                out.println(message);
-                out.flush();
-
-                if (out.checkError()) {
-                    // **FIXED LOGIC**: If a send error occurs (socket failure), break immediately.
-                    System.out.println("Connection lost during send operation.");
-                    break;
+                if (!FaultInjector.deliver(FaultInjector.CLIENT, FaultInjector.node(port))) {
+                    System.out.println("Message dropped (fault injection).");
+                    continue;
                 }
+                String request = withRequestId(message);
+                unacknowledged.addLast(request);
+                out.println(request);
             }
 
             // Clean up the reader thread
@@ -1,13 +1,59 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 public class ClusterConfig {
 
     // Host where all servers run
     public static final String HOST = "localhost";
 
+    // Host where the Monitor runs (override with -Dsrms.monitor.host=<host> for multi-host setups)
+    public static final String MONITOR_HOST = System.getProperty("srms.monitor.host", HOST);
+
+    // --- MONITOR REPLICAS ---
+    // Number of Monitor instances (-Dsrms.monitors=N). Monitor #i listens on 9000+10i (heartbeats)
+    // and 9001+10i (client API). With the default of 1 this is the original single Monitor.
+    public static final int MONITOR_COUNT = Math.max(1, Integer.getInteger("srms.monitors", 1));
+
+    // Optional per-monitor hosts (-Dsrms.monitor.hosts=h0,h1,...); defaults to MONITOR_HOST for all
+    private static final String[] MONITOR_HOSTS = System.getProperty("srms.monitor.hosts", "").split(",");
+
+    public static String monitorHost(int monitorId) {
+        if (monitorId < MONITOR_HOSTS.length && !MONITOR_HOSTS[monitorId].isBlank()) {
+            return MONITOR_HOSTS[monitorId].trim();
+        }
+        return MONITOR_HOST;
+    }
+
+    public static int monitorHeartbeatPort(int monitorId) {
+        return 9000 + monitorId * 10;
+    }
+
+    public static int monitorApiPort(int monitorId) {
+        return 9001 + monitorId * 10;
+    }
+
+    /**
+     * The Monitor that owns a node's heartbeats (its shard). Nodes fall back to the
+     * next Monitor in order if their owner is unreachable.
+     */
+    public static int monitorFor(int nodePort) {
+        return Math.floorMod(nodePort, MONITOR_COUNT);
+    }
+
     public static class NodeInfo {
+        public final String host;
         public final int port;
         public final ServerNode.Role role;
 
         public NodeInfo(int port, ServerNode.Role role) {
+            this(HOST, port, role);
+        }
+
+        public NodeInfo(String host, int port, ServerNode.Role role) {
+            this.host = host;
             this.port = port;
             this.role = role;
         }
@@ -16,9 +62,139 @@ public class ClusterConfig {
     // Abstraction–Occurrence:
     //  - Abstraction: NodeInfo
     //  - Occurrences: each (port, role) entry below
+    // These are only the SEED members; nodes can JOIN or LEAVE at runtime (see below).
     public static final NodeInfo[] NODES = {
             new NodeInfo(8090, ServerNode.Role.PRIMARY),
             new NodeInfo(8089, ServerNode.Role.BACKUP),
             new NodeInfo(8088, ServerNode.Role.BACKUP)
     };
+
+    // --- STATE SNAPSHOTS ---
+    // Where nodes keep their snapshot files, and how often the primary writes one
+    public static final String SNAPSHOT_DIR = System.getProperty("srms.snapshot.dir", System.getProperty("java.io.tmpdir"));
+    public static final int SNAPSHOT_INTERVAL_MS = Integer.getInteger("srms.snapshot.interval", 5000);
+
+    // --- ADMISSION CONTROL ---
+    // Limits that keep an overloaded primary responsive; requests over a limit get "BUSY|[retry ms]"
+    public static final int MAX_CONNECTIONS = Integer.getInteger("srms.maxConnections", 256);
+    // A connection carries one request at a time, so this must stay below the Client's pool size
+    // (32 connections) to limit anything
+    public static final int MAX_INFLIGHT_PER_CLIENT = Integer.getInteger("srms.maxInflightPerClient", 16);
+    public static final int REPLICATION_QUEUE_CAPACITY = Integer.getInteger("srms.replicationQueue", 1024);
+
+    public static final int BUSY_RETRY_AFTER_MS = Integer.getInteger("srms.busyRetryAfter", 100);
+
+    // --- REPLICATION TOPOLOGY ---
+    // "star": the primary sends every update to every backup. "chain": each node forwards to the
+    // next one. "tree": each node forwards to up to REPLICATION_FANOUT others. See Replicator.
+    public static final String REPLICATION_TOPOLOGY = System.getProperty("srms.replication", "star");
+    public static final int REPLICATION_FANOUT = Math.max(1, Integer.getInteger("srms.replication.fanout", 2));
+
+    // --- REPLICATED STATE MACHINE ---
+    // Recent updates every node keeps so a lagging backup can catch up without a snapshot
+    public static final int COMMAND_LOG_CAPACITY = Integer.getInteger("srms.commandLog", 4096);
+    // Recent client request IDs (with their replies) remembered to drop retried duplicates
+    public static final int REQUEST_CACHE_CAPACITY = Integer.getInteger("srms.requestCache", 10000);
+
+    // --- CONNECTION KEEPALIVE ---
+    // Idle connections are sent PING after KEEPALIVE_INTERVAL_MS and closed after IDLE_TIMEOUT_MS of silence
+    public static final int KEEPALIVE_INTERVAL_MS = Integer.getInteger("srms.keepaliveInterval", 15000);
+    public static final int IDLE_TIMEOUT_MS = Integer.getInteger("srms.idleTimeout", 60000);
+
+    // --- SOCKET TUNING ---
+    // Applied to every socket by SocketTuning; a buffer size of 0 keeps the OS default
+    public static final boolean TCP_NODELAY = Boolean.parseBoolean(System.getProperty("srms.tcpNoDelay", "true"));
+    public static final int SOCKET_SEND_BUFFER = Integer.getInteger("srms.socket.sendBuffer", 0);
+    public static final int SOCKET_RECEIVE_BUFFER = Integer.getInteger("srms.socket.receiveBuffer", 0);
+
+    // --- FAULT INJECTION ---
+    // Per-link delay/jitter/drop/partition rules, re-read whenever the file changes (see FaultInjector).
+    // Fixed under /tmp like the heartbeat delay flag, where the scripts write it (java.io.tmpdir
+    // differs from /tmp on macOS)
+    public static final String FAULTS_FILE = System.getProperty("srms.faults.file", "/tmp/srms-faults.conf");
+
+    // --- DYNAMIC MEMBERSHIP ---
+    // Current cluster members keyed by port, seeded from NODES.
+    private static final Map<Integer, NodeInfo> MEMBERS = new ConcurrentHashMap<>();
+
+    static {
+        for (NodeInfo node : NODES) {
+            MEMBERS.put(node.port, node);
+        }
+    }
+
+    /**
+     * Returns a snapshot of the current cluster members.
+     */
+    public static List<NodeInfo> members() {
+        return new ArrayList<>(MEMBERS.values());
+    }
+
+    public static boolean isMember(int port) {
+        return MEMBERS.containsKey(port);
+    }
+
+    /**
+     * Returns the host a member runs on, or HOST if the port is unknown.
+     */
+    public static String hostOf(int port) {
+        NodeInfo node = MEMBERS.get(port);
+        return node != null ? node.host : HOST;
+    }
+
+    /**
+     * Adds a node to the cluster (or updates its host).
+     * @return true if membership changed.
+     */
+    public static boolean join(String host, int port) {
+        NodeInfo existing = MEMBERS.get(port);
+        if (existing != null && existing.host.equals(host)) {
+            return false;
+        }
+        ServerNode.Role role = existing != null ? existing.role : ServerNode.Role.BACKUP;
+        MEMBERS.put(port, new NodeInfo(host, port, role));
+        return true;
+    }
+
+    /**
+     * Removes a node from the cluster.
+     * @return true if the node was a member.
+     */
+    public static boolean leave(int port) {
+        return MEMBERS.remove(port) != null;
+    }
+
+    /**
+     * Encodes membership for the wire as "host:port,host:port,...".
+     */
+    public static String encodeMembers() {
+        StringBuilder sb = new StringBuilder();
+        for (NodeInfo node : MEMBERS.values()) {
+            if (sb.length() > 0) sb.append(',');
+            sb.append(node.host).append(':').append(node.port);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Replaces local membership with the list received from the Monitor.
+     * Malformed entries are skipped; an empty list leaves membership untouched.
+     */
+    public static void replaceMembers(String encoded) {
+        if (encoded == null || encoded.isBlank()) return;
+
+        Map<Integer, String> received = new HashMap<>();
+        for (String entry : encoded.split(",")) {
+            int sep = entry.lastIndexOf(':');
+            if (sep <= 0) continue;
+            try {
+                received.put(Integer.parseInt(entry.substring(sep + 1).trim()), entry.substring(0, sep).trim());
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        if (received.isEmpty()) return;
+
+        MEMBERS.keySet().removeIf(port -> !received.containsKey(port));
+        received.forEach((port, host) -> join(host, port));
+    }
 }
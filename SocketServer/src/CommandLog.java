@@ -0,0 +1,55 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The most recent replicated updates, kept in a fixed-size ring by sequence number.
+ * A backup that missed some updates (a lost link, a restart) asks for them with
+ * CATCHUP:[last seq it has] instead of transferring a full snapshot. Every node keeps the
+ * log, so a backup promoted to primary can serve catch-ups too.
+ */
+public class CommandLog {
+
+    private final String[] updates;
+    private final long[] seqs;
+    private long lastSeq = 0;
+
+    public CommandLog(int capacity) {
+        this.updates = new String[capacity];
+        this.seqs = new long[capacity];
+    }
+
+    public synchronized void append(long seq, String update) {
+        int slot = (int) (seq % updates.length);
+        updates[slot] = update;
+        seqs[slot] = seq;
+        lastSeq = seq;
+    }
+
+    /**
+     * @return the update with this sequence number, or null if it is not retained
+     */
+    public synchronized String get(long seq) {
+        int slot = (int) (seq % updates.length);
+        return seqs[slot] == seq ? updates[slot] : null;
+    }
+
+    /**
+     * @return the updates after fromSeq in order, or null if some of them are no longer retained
+     */
+    public synchronized List<String> since(long fromSeq) {
+        List<String> result = new ArrayList<>();
+        for (long seq = fromSeq + 1; seq <= lastSeq; seq++) {
+            String update = get(seq);
+            if (update == null) return null;
+            result.add(update);
+        }
+        return result;
+    }
+
+    public synchronized void clear() {
+        Arrays.fill(updates, null);
+        Arrays.fill(seqs, 0);
+        lastSeq = 0;
+    }
+}
@@ -0,0 +1,88 @@
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Per-connection bookkeeping for ServerProcess: when the connection was opened, when it last
+ * carried traffic, how many lines it delivered, and whether a keepalive PING is outstanding.
+ * Used by the connection reaper to send keepalives and close idle or dead connections.
+ */
+public class ConnectionStats {
+
+    private final Socket socket;
+    private final long connectedAt = System.currentTimeMillis();
+    private final LongAdder requests = new LongAdder();
+    private volatile long lastActivity = connectedAt;
+    private volatile boolean pingOutstanding = false;
+
+    // Set once the handler has opened its writer; the keepalive sender uses it to send PINGs
+    private volatile PrintWriter out;
+    // Held by the handler while it writes, so a PING never queues behind a blocked write
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    public ConnectionStats(Socket socket) {
+        this.socket = socket;
+    }
+
+    public void attach(PrintWriter out) {
+        this.out = out;
+    }
+
+    /**
+     * Records one line received from the peer (any traffic proves the peer is alive).
+     */
+    public void recordActivity() {
+        requests.increment();
+        lastActivity = System.currentTimeMillis();
+        pingOutstanding = false;
+    }
+
+    public long idleMillis(long now) {
+        return now - lastActivity;
+    }
+
+    public boolean isPingOutstanding() {
+        return pingOutstanding;
+    }
+
+    /**
+     * Records that a PING has been scheduled, so the reaper does not schedule another.
+     */
+    public void pingScheduled() {
+        pingOutstanding = true;
+    }
+
+    public void lockWrites() {
+        writeLock.lock();
+    }
+
+    public void unlockWrites() {
+        writeLock.unlock();
+    }
+
+    /**
+     * Sends a keepalive PING; the peer is expected to answer PONG.
+     * Must not run on the reaper thread: the write blocks if the peer has stopped reading, until
+     * the reaper closes the socket.
+     * @return false if the PING could not be sent: the handler is busy writing or the socket failed
+     */
+    public boolean sendPing() {
+        PrintWriter writer = out;
+        if (writer == null) return true;
+        if (!writeLock.tryLock()) return false;
+        try {
+            writer.println("PING");
+            return !writer.checkError(); // checkError() also flushes
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        long now = System.currentTimeMillis();
+        return socket.getRemoteSocketAddress() + " (open " + (now - connectedAt) + "ms, idle "
+                + idleMillis(now) + "ms, " + requests.sum() + " requests)";
+    }
+}
@@ -0,0 +1,258 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * In-process network fault injection for testing failure detection and failover.
+ * Every socket path between cluster components goes through connect(), deliver() or delayFor(),
+ * which apply the rule for that one-way link: extra delay, random jitter, message drop, or a full partition.
+ * connect() and deliver() sleep out the delay on the calling thread; callers that serve several
+ * links from one thread use open() and delayFor() and hold back their own writes instead.
+ *
+ * Rules are read from ClusterConfig.FAULTS_FILE and reloaded when the file changes, so faults
+ * can be switched on and off while the cluster runs (see scripts/inject-fault.sh). One rule per line:
+ *
+ *   [from]>[to] [delay=ms] [jitter=ms] [drop=probability] [partition]
+ *
+ * Endpoints are a node port (8090), a Monitor (monitor0) or "client"; "*" and a trailing
+ * "*" (monitor*) are wildcards. The first matching rule wins. For example:
+ *
+ *   8090>monitor0 delay=3000 jitter=500
+ *   monitor*>8090 partition
+ *   *>8089 drop=0.3
+ *
+ * In addition, /tmp/heartbeat_delay.flag (written by delay-heartbeat.sh) delays every
+ * heartbeat by the number of seconds it contains.
+ */
+public final class FaultInjector {
+
+    public static final String CLIENT = "client";
+    private static final Path HEARTBEAT_DELAY_FLAG = Paths.get("/tmp/heartbeat_delay.flag");
+    private static final int RELOAD_INTERVAL_MS = 250;
+
+    private FaultInjector() {}
+
+    public static String node(int port) {
+        return String.valueOf(port);
+    }
+
+    public static String monitor(int monitorId) {
+        return "monitor" + monitorId;
+    }
+
+    // One parsed line of the rules file
+    private static final class Rule {
+        final String from;
+        final String to;
+        final long delayMs;
+        final long jitterMs;
+        final double dropProbability;
+        final boolean partition;
+
+        Rule(String from, String to, long delayMs, long jitterMs, double dropProbability, boolean partition) {
+            this.from = from;
+            this.to = to;
+            this.delayMs = delayMs;
+            this.jitterMs = jitterMs;
+            this.dropProbability = dropProbability;
+            this.partition = partition;
+        }
+
+        boolean matches(String linkFrom, String linkTo) {
+            return endpointMatches(from, linkFrom) && endpointMatches(to, linkTo);
+        }
+
+        private static boolean endpointMatches(String pattern, String endpoint) {
+            if (pattern.endsWith("*")) {
+                return endpoint.startsWith(pattern.substring(0, pattern.length() - 1));
+            }
+            return pattern.equals(endpoint);
+        }
+    }
+
+    // Reloaded at most every RELOAD_INTERVAL_MS; when no file exists this costs one stat per interval
+    private static volatile List<Rule> rules = Collections.emptyList();
+    private static volatile long heartbeatDelayMs = 0;
+    private static volatile long lastCheck = 0;
+    private static long rulesModified = -1;
+    private static long flagModified = -1;
+
+    /**
+     * Opens a connection over a link. A partitioned or dropped link fails like an unreachable
+     * host; otherwise the connect is held back by the link's delay and jitter.
+     */
+    public static Socket connect(String from, String to, String host, int port, int timeoutMs) throws IOException {
+        if (!deliver(from, to)) {
+            throw new IOException("Link " + from + ">" + to + " is down (fault injection)");
+        }
+        return openSocket(host, port, timeoutMs);
+    }
+
+    /**
+     * Like connect(), but without the delay: a partitioned or dropped link still fails, and the
+     * caller applies delayFor() to what it writes on the socket.
+     */
+    public static Socket open(String from, String to, String host, int port, int timeoutMs) throws IOException {
+        if (delayFor(from, to) < 0) {
+            throw new IOException("Link " + from + ">" + to + " is down (fault injection)");
+        }
+        return openSocket(host, port, timeoutMs);
+    }
+
+    private static Socket openSocket(String host, int port, int timeoutMs) throws IOException {
+        Socket socket = SocketTuning.tune(new Socket());
+        try {
+            socket.connect(new InetSocketAddress(host, port), timeoutMs);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return socket;
+    }
+
+    /**
+     * Applies the link's rule to one message: sleeps for its delay plus jitter.
+     * @return false if the message must be dropped (partition or random drop)
+     */
+    public static boolean deliver(String from, String to) {
+        long delay = delayFor(from, to);
+        if (delay < 0) return false;
+        sleep(delay);
+        return true;
+    }
+
+    /**
+     * Applies the link's rule to one message without sleeping.
+     * @return the delay plus jitter to hold the message back by, or -1 if it must be dropped
+     */
+    public static long delayFor(String from, String to) {
+        Rule rule = ruleFor(from, to);
+        if (rule == null) return 0;
+        if (rule.partition || (rule.dropProbability > 0 && ThreadLocalRandom.current().nextDouble() < rule.dropProbability)) {
+            return -1;
+        }
+        return rule.delayMs + (rule.jitterMs > 0 ? ThreadLocalRandom.current().nextLong(rule.jitterMs + 1) : 0);
+    }
+
+    /**
+     * Like connect(), but also applies the heartbeat delay flag.
+     */
+    public static Socket connectHeartbeat(String from, String to, String host, int port, int timeoutMs) throws IOException {
+        reloadIfDue();
+        sleep(heartbeatDelayMs);
+        return connect(from, to, host, port, timeoutMs);
+    }
+
+    private static Rule ruleFor(String from, String to) {
+        reloadIfDue();
+        for (Rule rule : rules) {
+            if (rule.matches(from, to)) {
+                return rule;
+            }
+        }
+        return null;
+    }
+
+    private static void sleep(long ms) {
+        if (ms <= 0) return;
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void reloadIfDue() {
+        long now = System.currentTimeMillis();
+        if (now - lastCheck >= RELOAD_INTERVAL_MS) {
+            lastCheck = now;
+            reload();
+        }
+    }
+
+    private static synchronized void reload() {
+        Path file = Paths.get(ClusterConfig.FAULTS_FILE);
+        long modified = lastModified(file);
+        if (modified != rulesModified) {
+            rulesModified = modified;
+            rules = modified < 0 ? Collections.emptyList() : parse(file);
+            System.out.println("[FaultInjector] " + rules.size() + " fault rule(s) active");
+        }
+
+        modified = lastModified(HEARTBEAT_DELAY_FLAG);
+        if (modified != flagModified) {
+            flagModified = modified;
+            heartbeatDelayMs = 0;
+            if (modified >= 0) {
+                try {
+                    heartbeatDelayMs = (long) (Double.parseDouble(Files.readString(HEARTBEAT_DELAY_FLAG).trim()) * 1000);
+                } catch (IOException | NumberFormatException e) {
+                    System.err.println("[FaultInjector] Invalid heartbeat delay flag: " + e.getMessage());
+                }
+            }
+            System.out.println("[FaultInjector] Heartbeat delay: " + heartbeatDelayMs + "ms");
+        }
+    }
+
+    private static long lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return -1; // No file: no faults
+        }
+    }
+
+    private static List<Rule> parse(Path file) {
+        List<Rule> parsed = new ArrayList<>();
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(file);
+        } catch (IOException e) {
+            System.err.println("[FaultInjector] Cannot read " + file + ": " + e.getMessage());
+            return parsed;
+        }
+
+        for (String line : lines) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+
+            String[] tokens = line.split("\\s+");
+            int sep = tokens[0].indexOf('>');
+            if (sep <= 0 || sep == tokens[0].length() - 1) {
+                System.err.println("[FaultInjector] Ignoring rule without a from>to link: " + line);
+                continue;
+            }
+            try {
+                long delay = 0;
+                long jitter = 0;
+                double drop = 0;
+                boolean partition = false;
+                for (int i = 1; i < tokens.length; i++) {
+                    String token = tokens[i];
+                    if ("partition".equals(token)) {
+                        partition = true;
+                    } else if (token.startsWith("delay=")) {
+                        delay = Long.parseLong(token.substring(6));
+                    } else if (token.startsWith("jitter=")) {
+                        jitter = Long.parseLong(token.substring(7));
+                    } else if (token.startsWith("drop=")) {
+                        drop = Double.parseDouble(token.substring(5));
+                    } else {
+                        throw new IllegalArgumentException("unknown option " + token);
+                    }
+                }
+                parsed.add(new Rule(tokens[0].substring(0, sep), tokens[0].substring(sep + 1), delay, jitter, drop, partition));
+            } catch (IllegalArgumentException e) {
+                System.err.println("[FaultInjector] Ignoring invalid rule \"" + line + "\": " + e.getMessage());
+            }
+        }
+        return parsed;
+    }
+}
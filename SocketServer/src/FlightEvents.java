@@ -0,0 +1,135 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Java Flight Recorder events for the failover, replication and heartbeat paths.
+ * They cost next to nothing unless a recording is running; start one with
+ * -XX:StartFlightRecording=filename=srms.jfr and read it with "jfr print --events 'srms.*' srms.jfr"
+ * or JDK Mission Control. Hot paths fill in fields only after shouldCommit() says the event is wanted.
+ */
+public final class FlightEvents {
+
+    private FlightEvents() {
+    }
+
+    // --- MONITOR ---
+
+    @Name("srms.Heartbeat")
+    @Label("Heartbeat")
+    @Category({"SRMS", "Monitor"})
+    @Description("A node heartbeat received and answered by a Monitor")
+    public static final class Heartbeat extends Event {
+        @Label("Monitor")
+        int monitorId;
+        @Label("Node Port")
+        int port;
+        @Label("Node Role")
+        String role;
+        @Label("Node Epoch")
+        long epoch;
+        @Label("Applied Sequence")
+        long seq;
+        @Label("Load")
+        int load;
+        @Label("Clients")
+        int clients;
+        @Label("Transit Delay")
+        @Description("Receipt time minus the node's send timestamp")
+        @Timespan(Timespan.MILLISECONDS)
+        long transitDelay;
+        @Label("Lease Granted")
+        boolean leaseGranted;
+    }
+
+    @Name("srms.NodeDeath")
+    @Label("Node Death")
+    @Category({"SRMS", "Monitor"})
+    @Description("A node declared dead after missing its heartbeats")
+    public static final class NodeDeath extends Event {
+        @Label("Monitor")
+        int monitorId;
+        @Label("Node Port")
+        int port;
+        @Label("Silence")
+        @Timespan(Timespan.MILLISECONDS)
+        long silence;
+        @Label("Was Primary")
+        boolean wasPrimary;
+    }
+
+    @Name("srms.Failover")
+    @Label("Failover")
+    @Category({"SRMS", "Monitor"})
+    @Description("A failover run by the leader Monitor, from the first promotion attempt to the last")
+    public static final class Failover extends Event {
+        @Label("Monitor")
+        int monitorId;
+        @Label("Old Primary Port")
+        int oldPrimary;
+        @Label("New Primary Port")
+        @Description("0 if no node could be promoted")
+        int newPrimary;
+        @Label("Attempts")
+        int attempts;
+    }
+
+    @Name("srms.PromotionAttempt")
+    @Label("Promotion Attempt")
+    @Category({"SRMS", "Monitor"})
+    @Description("One PROMOTE sent (or tried) by the leader Monitor")
+    public static final class PromotionAttempt extends Event {
+        @Label("Monitor")
+        int monitorId;
+        @Label("Node Port")
+        int port;
+        @Label("Epoch")
+        long epoch;
+        @Label("Succeeded")
+        boolean succeeded;
+        @Label("Error")
+        String error;
+    }
+
+    // --- SERVER ---
+
+    @Name("srms.ReplicationSend")
+    @Label("Replication Send")
+    @Category({"SRMS", "Replication"})
+    @Description("One batch of updates written to one backup")
+    public static final class ReplicationSend extends Event {
+        @Label("From Port")
+        int fromPort;
+        @Label("To Port")
+        int toPort;
+        @Label("Updates")
+        int updates;
+        @Label("First Sequence")
+        long firstSeq;
+        @Label("Last Sequence")
+        long lastSeq;
+        @Label("Delivered")
+        boolean delivered;
+    }
+
+    @Name("srms.ClientRequest")
+    @Label("Client Request")
+    @Category({"SRMS", "Server"})
+    @Description("A client line handled by a server, including the wait for replication")
+    public static final class ClientRequest extends Event {
+        @Label("Server Port")
+        int port;
+        @Label("Primary")
+        boolean primary;
+        @Label("Client Host")
+        String clientHost;
+        @Label("Command")
+        @Description("First word of the command")
+        String command;
+        @Label("Request ID")
+        String requestId;
+    }
+}
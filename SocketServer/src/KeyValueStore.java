@@ -0,0 +1,207 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Replicated key-value store: the default StateMachine of a ServerProcess.
+ *
+ * Commands (keys contain no spaces; a value is the rest of the line):
+ *   PUT [key] [value]              -> OK
+ *   GET [key]                      -> VALUE [value] | NOT_FOUND
+ *   DELETE [key]                   -> DELETED | NOT_FOUND
+ *   CAS [key] [expected] [value]   -> OK | CAS_FAILED
+ *
+ * Entries live in one open-addressing hash table of parallel arrays (keys and values as UTF-8
+ * byte[], cached hashes as int[]) with linear probing, so an entry costs two small arrays and
+ * no Map.Entry, String or boxed objects.
+ */
+public class KeyValueStore implements StateMachine {
+
+    private static final int INITIAL_CAPACITY = 64; // Always a power of two
+    // Marks a deleted slot, so probe chains running through it stay intact
+    private static final byte[] TOMBSTONE = new byte[0];
+
+    private byte[][] keys = new byte[INITIAL_CAPACITY][];
+    private byte[][] values = new byte[INITIAL_CAPACITY][];
+    private int[] hashes = new int[INITIAL_CAPACITY];
+    private int size = 0; // Live entries
+    private int used = 0; // Live entries plus tombstones
+
+    @Override
+    public boolean isReadOnly(String command) {
+        return command.startsWith("GET ");
+    }
+
+    @Override
+    public synchronized String query(String command) {
+        String[] parts = command.split(" ");
+        if (parts.length != 2) return "ERROR: Usage: GET <key>";
+        byte[] value = get(bytes(parts[1]));
+        return value != null ? "VALUE " + new String(value, StandardCharsets.UTF_8) : "NOT_FOUND";
+    }
+
+    @Override
+    public synchronized String apply(String command) {
+        String[] parts;
+        if (command.startsWith("PUT ")) {
+            parts = command.split(" ", 3);
+            if (parts.length != 3) return "ERROR: Usage: PUT <key> <value>";
+            put(bytes(parts[1]), bytes(parts[2]));
+            return "OK";
+        } else if (command.startsWith("DELETE ")) {
+            parts = command.split(" ");
+            if (parts.length != 2) return "ERROR: Usage: DELETE <key>";
+            return remove(bytes(parts[1])) ? "DELETED" : "NOT_FOUND";
+        } else if (command.startsWith("CAS ")) {
+            parts = command.split(" ", 4);
+            if (parts.length != 4) return "ERROR: Usage: CAS <key> <expected> <value>";
+            byte[] key = bytes(parts[1]);
+            if (!Arrays.equals(get(key), bytes(parts[2]))) return "CAS_FAILED";
+            put(key, bytes(parts[3]));
+            return "OK";
+        }
+        return null; // Not a store command
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    // --- HASH TABLE ---
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int hash(byte[] key) {
+        int h = Arrays.hashCode(key);
+        return h ^ (h >>> 16);
+    }
+
+    // Slot holding the key, or -1
+    private int find(byte[] key, int hash) {
+        int mask = keys.length - 1;
+        for (int i = hash & mask; keys[i] != null; i = (i + 1) & mask) {
+            if (keys[i] != TOMBSTONE && hashes[i] == hash && Arrays.equals(keys[i], key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private byte[] get(byte[] key) {
+        int slot = find(key, hash(key));
+        return slot >= 0 ? values[slot] : null;
+    }
+
+    private void put(byte[] key, byte[] value) {
+        int hash = hash(key);
+        int slot = find(key, hash);
+        if (slot >= 0) {
+            values[slot] = value;
+            return;
+        }
+
+        if ((used + 1) * 4 > keys.length * 3) {
+            // Grow when mostly live entries; otherwise rehashing at the same size clears tombstones
+            resize(size * 2 >= used ? keys.length * 2 : keys.length);
+        }
+        int mask = keys.length - 1;
+        int i = hash & mask;
+        while (keys[i] != null && keys[i] != TOMBSTONE) {
+            i = (i + 1) & mask;
+        }
+        if (keys[i] == null) used++;
+        keys[i] = key;
+        values[i] = value;
+        hashes[i] = hash;
+        size++;
+    }
+
+    private boolean remove(byte[] key) {
+        int slot = find(key, hash(key));
+        if (slot < 0) return false;
+        keys[slot] = TOMBSTONE;
+        values[slot] = null;
+        size--;
+        return true;
+    }
+
+    private void resize(int capacity) {
+        byte[][] oldKeys = keys;
+        byte[][] oldValues = values;
+        int[] oldHashes = hashes;
+
+        keys = new byte[capacity][];
+        values = new byte[capacity][];
+        hashes = new int[capacity];
+        used = size;
+
+        int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] == null || oldKeys[j] == TOMBSTONE) continue;
+            int i = oldHashes[j] & mask;
+            while (keys[i] != null) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = oldKeys[j];
+            values[i] = oldValues[j];
+            hashes[i] = oldHashes[j];
+        }
+    }
+
+    // --- SNAPSHOTS ---
+    // Layout: [entry count int] then per entry [key length int][key][value length int][value]
+
+    @Override
+    public synchronized void writeTo(DataOutputStream out) throws IOException {
+        writeEntries(out, size, keys, values);
+    }
+
+    /**
+     * Copies the two slot arrays; keys and values themselves are never modified in place, so the
+     * copies stay consistent while later commands change the table.
+     */
+    @Override
+    public synchronized SnapshotStore.StateWriter capture() {
+        int count = size;
+        byte[][] keyCopy = keys.clone();
+        byte[][] valueCopy = values.clone();
+        return out -> writeEntries(out, count, keyCopy, valueCopy);
+    }
+
+    private static void writeEntries(DataOutputStream out, int count, byte[][] keys, byte[][] values) throws IOException {
+        out.writeInt(count);
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == null || keys[i] == TOMBSTONE) continue;
+            out.writeInt(keys[i].length);
+            out.write(keys[i]);
+            out.writeInt(values[i].length);
+            out.write(values[i]);
+        }
+    }
+
+    @Override
+    public synchronized void readFrom(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        int capacity = INITIAL_CAPACITY;
+        while (capacity * 3 < count * 4) {
+            capacity *= 2;
+        }
+        keys = new byte[capacity][];
+        values = new byte[capacity][];
+        hashes = new int[capacity];
+        size = 0;
+        used = 0;
+
+        for (int n = 0; n < count; n++) {
+            byte[] key = new byte[in.readInt()];
+            in.readFully(key);
+            byte[] value = new byte[in.readInt()];
+            in.readFully(value);
+            put(key, value);
+        }
+    }
+}
@@ -1,3 +1,5 @@
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Scanner;
 
 /**
@@ -41,9 +43,12 @@ public class Main {
         backupServer2.process();
         System.out.println("Backup server 2 started on port " + ClusterConfig.NODES[2].port);
 
+        // Nodes added at runtime with "join <port>" (scale out without a reboot)
+        Map<Integer, ServerNode> joinedNodes = new HashMap<>();
+
         try (Scanner scanner = new Scanner(System.in)) {
             while (true) {
-                System.out.print("Enter a command (stop primary / stop backup1 / stop backup2 / stop all / exit / reboot): \n");
+                System.out.print("Enter a command (stop primary / stop backup1 / stop backup2 / stop all / join <port> / leave <port> / exit / reboot / warm reboot): \n");
                 String command = scanner.nextLine().trim().toLowerCase();
 
                 switch (command) {
@@ -96,15 +101,60 @@ public class Main {
                         backupServer2.process();
                         System.out.println("All servers rebooted successfully.");
                     }
+                    case "warm reboot" -> {
+                        // Replacement nodes take over the sockets and state; no heartbeat is missed
+                        System.out.println("Warm-rebooting all servers...");
+                        long start = System.nanoTime();
+                        try {
+                            primaryServer = primaryServer.warmRestart();
+                            backupServer = backupServer.warmRestart();
+                            backupServer2 = backupServer2.warmRestart();
+                            System.out.println("All servers warm-rebooted in "
+                                    + (System.nanoTime() - start) / 1_000_000 + "ms.");
+                        } catch (IllegalStateException e) {
+                            System.out.println("Warm reboot failed: " + e.getMessage() + ". Use 'reboot' instead.");
+                        }
+                    }
 
                     case "exit" -> {
                         System.out.println("Shutting down...");
                         primaryServer.stop();
                         backupServer.stop();
                         backupServer2.stop();
+                        joinedNodes.values().forEach(ServerNode::stop);
                         System.exit(0);
 
                     }
+                    default -> {
+                        if (command.startsWith("join ")) {
+                            try {
+                                int port = Integer.parseInt(command.substring(5).trim());
+                                if (joinedNodes.containsKey(port) || ClusterConfig.isMember(port)) {
+                                    System.out.println("Port " + port + " is already a cluster member.");
+                                } else {
+                                    ServerNode node = new ServerNode(port, ServerNode.Role.BACKUP);
+                                    node.process(); // Sends JOIN to the Monitor on startup
+                                    joinedNodes.put(port, node);
+                                    System.out.println("Backup server joined on port " + port);
+                                }
+                            } catch (NumberFormatException e) {
+                                System.out.println("Usage: join <port>");
+                            }
+                        } else if (command.startsWith("leave ")) {
+                            try {
+                                int port = Integer.parseInt(command.substring(6).trim());
+                                ServerNode node = joinedNodes.remove(port);
+                                if (node != null) {
+                                    node.leave();
+                                    System.out.println("Server on port " + port + " left the cluster");
+                                } else {
+                                    System.out.println("No joined server on port " + port);
+                                }
+                            } catch (NumberFormatException e) {
+                                System.out.println("Usage: leave <port>");
+                            }
+                        }
+                    }
                 }
             }
         }
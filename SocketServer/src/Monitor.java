@@ -2,28 +2,46 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Monitor class implementing Singleton and Observer patterns.
  * Manages server health monitoring, failover, and notifies observers of system events.
+ *
+ * Several Monitors can run side by side (see ClusterConfig.MONITOR_COUNT). Each one ingests
+ * heartbeats for its shard of nodes and gossips its view to the others; the lowest-id live
+ * Monitor is the leader and is the only one that runs failover, once a majority of all Monitors
+ * vote for it. Any Monitor answers clients.
  */
 public class Monitor {
 
-    // --- SINGLETON PATTERN ---
-    private static Monitor instance;
+    // --- SINGLETON PATTERN (one instance per Monitor id) ---
+    private static final Map<Integer, Monitor> instances = new HashMap<>();
 
-    private Monitor() {
+    private final int monitorId;
+
+    private Monitor(int monitorId) {
+        this.monitorId = monitorId;
+        this.HEARTBEAT_PORT = ClusterConfig.monitorHeartbeatPort(monitorId);
+        this.CLIENT_API_PORT = ClusterConfig.monitorApiPort(monitorId);
+        encodePrimaryReplies();
     }
 
     public static synchronized Monitor getInstance() {
-        if (instance == null) {
-            instance = new Monitor();
-        }
-        return instance;
+        return getInstance(0);
+    }
+
+    public static synchronized Monitor getInstance(int monitorId) {
+        return instances.computeIfAbsent(monitorId, Monitor::new);
     }
 
     // --- OBSERVER PATTERN ---
@@ -45,27 +63,311 @@ public class Monitor {
 
     // --- GLOBAL CONSTANTS ---
     private static final int PRIMARY_PORT_DEFAULT = ClusterConfig.NODES[0].port;
-    private final int HEARTBEAT_PORT = 9000;
-    private final int CLIENT_API_PORT = 9001;
+    private static final int TIMEOUT_MS = 5000;
+    private final int HEARTBEAT_PORT;
+    private final int CLIENT_API_PORT;
 
-    // Volatile field to track the current Primary PORT
+    // Volatile field to track the current Primary PORT (changed only through setCurrentPrimary)
     private volatile int currentPrimaryPort = PRIMARY_PORT_DEFAULT;
 
-    // List of all server ports, sorted descending (highest port first)
-    private static final List<Integer> ALL_SERVER_PORTS_DESC = new ArrayList<>();
+    // --- PRE-ENCODED API REPLIES ---
+    // GET_PRIMARY and GET_PRIMARY_ADDR are served from these buffers, swapped whenever the primary changes
+    private final AtomicReference<ByteBuffer> primaryReply = new AtomicReference<>();
+    private final AtomicReference<ByteBuffer> primaryAddrReply = new AtomicReference<>();
+    private static final ByteBuffer INVALID_REQUEST = MonitorApiServer.encode("ERROR: Invalid Request");
+
+    private synchronized void setCurrentPrimary(int port) {
+        if (port != currentPrimaryPort) {
+            currentPrimaryPort = port;
+            encodePrimaryReplies();
+        }
+    }
 
-    static {
-        // Build the list of all server ports from the ClusterConfig abstraction
-        for (ClusterConfig.NodeInfo node : ClusterConfig.NODES) {
-            ALL_SERVER_PORTS_DESC.add(node.port);
+    private synchronized void encodePrimaryReplies() {
+        int port = currentPrimaryPort;
+        primaryReply.set(MonitorApiServer.encode(String.valueOf(Math.max(port, 0))));
+        // host:port so clients can reach primaries running on other hosts
+        primaryAddrReply.set(MonitorApiServer.encode(port > 0 ? ClusterConfig.hostOf(port) + ":" + port : "0"));
+    }
+
+    // --- PRIMARY LEASES AND FENCING ---
+    // Every promotion starts a new epoch. The primary may only accept writes while it holds a
+    // lease, renewed on each of its heartbeats to the leader Monitor. A new primary is never
+    // promoted before the previous lease (plus a grace period for message delay) has run out.
+    private static final int LEASE_MS = 4000;
+    private static final int LEASE_GRACE_MS = 500;
+    private volatile long epoch = 0;
+    private volatile long leaseExpiresAt = 0;
+
+    // List of all server ports, sorted descending (highest port first).
+    // Rebuilt (copy-on-write) whenever a node JOINs or LEAVEs, so readers never see a partial list.
+    private volatile List<Integer> allServerPortsDesc = buildPromotionOrder();
+
+    /**
+     * Builds the promotion order from the current ClusterConfig membership.
+     */
+    private static List<Integer> buildPromotionOrder() {
+        List<Integer> ports = new ArrayList<>();
+        for (ClusterConfig.NodeInfo node : ClusterConfig.members()) {
+            ports.add(node.port);
         }
         // Ensure the list is sorted in descending order for promotion priority
-        ALL_SERVER_PORTS_DESC.sort(Collections.reverseOrder());
+        ports.sort(Collections.reverseOrder());
+        return Collections.unmodifiableList(ports);
+    }
+
+    private synchronized void rebuildPromotionOrder() {
+        allServerPortsDesc = buildPromotionOrder();
+        System.out.println("Promotion order rebuilt: " + allServerPortsDesc);
+    }
+
+    // --- MONITOR REPLICATION ---
+    private static final int PEER_GOSSIP_INTERVAL = 1000;
+    private static final int PEER_TIMEOUT_MS = 3000;
+
+    // Last time each peer Monitor was heard from (keyed by monitor id)
+    private final Map<Integer, Long> peerLastSeen = new ConcurrentHashMap<>();
+    // The leader each peer Monitor last voted for in its gossip (keyed by monitor id)
+    private final Map<Integer, Integer> peerVotes = new ConcurrentHashMap<>();
+    // Sends to each peer on its own thread, so a slow or delayed link holds up only that peer
+    private final ExecutorService peerSenders = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "monitor-peer-sender");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final long startedAt = System.currentTimeMillis();
+
+    /**
+     * The leader is the lowest-id Monitor that is alive. Lower-id peers we have not heard
+     * from yet are given PEER_TIMEOUT_MS after startup before we assume they are down.
+     */
+    private int leaderId() {
+        long now = System.currentTimeMillis();
+        for (int id = 0; id < monitorId; id++) {
+            Long t = peerLastSeen.get(id);
+            if (t != null ? now - t <= PEER_TIMEOUT_MS : now - startedAt <= PEER_TIMEOUT_MS) {
+                return id;
+            }
+        }
+        return monitorId;
+    }
+
+    /**
+     * A Monitor only acts as leader while a majority of all MONITOR_COUNT Monitors (itself
+     * included) vote for it, so at most one side of a partition runs failover or renews leases.
+     * A minority on its own never leads; its primary's lease runs out instead.
+     */
+    private boolean isLeader() {
+        if (leaderId() != monitorId) return false;
+
+        long now = System.currentTimeMillis();
+        int votes = 1; // Our own
+        for (Map.Entry<Integer, Integer> vote : peerVotes.entrySet()) {
+            Long t = peerLastSeen.get(vote.getKey());
+            if (vote.getValue() == monitorId && t != null && now - t <= PEER_TIMEOUT_MS) {
+                votes++;
+            }
+        }
+        return votes > ClusterConfig.MONITOR_COUNT / 2;
+    }
+
+    /**
+     * The next epoch for a promotion by this Monitor. Epochs are congruent to the monitor id
+     * modulo MONITOR_COUNT, so two Monitors that both believe they lead can never hand out the
+     * same epoch to different nodes. Caller holds the lock.
+     */
+    private long nextPromotionEpoch() {
+        long n = ClusterConfig.MONITOR_COUNT;
+        epoch = (epoch / n + 1) * n + monitorId;
+        return epoch;
+    }
+
+    // --- NODE REPORTS ---
+
+    /**
+     * What a node last said about itself in its heartbeat (received directly or via gossip).
+     */
+    private static final class NodeReport {
+        static final NodeReport UNKNOWN = new NodeReport(-1, -1, 0, 0);
+
+        final long epoch;
+        final long seq;     // replicated message count
+        final int load;     // requests in flight plus queued replication
+        final int clients;  // open connections
+
+        NodeReport(long epoch, long seq, int load, int clients) {
+            this.epoch = epoch;
+            this.seq = seq;
+            this.load = load;
+            this.clients = clients;
+        }
+
+        // [epoch],[seq],[load],[clients] as carried in gossip
+        String encode() {
+            return epoch + "," + seq + "," + load + "," + clients;
+        }
+
+        @Override
+        public String toString() {
+            return "seq " + seq + ", load " + load + ", clients " + clients;
+        }
+    }
+
+    private final Map<Integer, NodeReport> reports = new ConcurrentHashMap<>();
+
+    private NodeReport report(int port) {
+        return reports.getOrDefault(port, NodeReport.UNKNOWN);
+    }
+
+    // Stores a node's report; only an epoch change is visible in the cached topology
+    private void updateReport(int port, NodeReport report) {
+        NodeReport previous = reports.put(port, report);
+        if (previous == null || previous.epoch != report.epoch) {
+            topologyChanged();
+        }
+    }
+
+    // --- CACHED TOPOLOGY ---
+
+    /**
+     * Pre-serialized answers to TOPOLOGY and STATUS, plus the values they were built from.
+     * Immutable, so any number of API threads can serve the same instance.
+     */
+    private static final class Topology {
+        final int primaryPort;
+        final long epoch;
+        final int leaderId;
+        final String statusLine;
+        final ByteBuffer encodedReply;
+        final ByteBuffer encodedStatus;
+
+        Topology(int primaryPort, long epoch, int leaderId, String reply, String statusLine) {
+            this.primaryPort = primaryPort;
+            this.epoch = epoch;
+            this.leaderId = leaderId;
+            this.statusLine = statusLine;
+            this.encodedReply = MonitorApiServer.encode(reply);
+            this.encodedStatus = MonitorApiServer.encode(statusLine);
+        }
+    }
+
+    // Published for lock-free reads by the API selector thread
+    private volatile Topology topology;
+    // Set when membership or liveness changes; role and epoch changes are detected by comparison
+    private volatile boolean topologyChanged = true;
+    // Serializes rebuilds only. Everything a rebuild reads is volatile or concurrent, so it never
+    // takes the Monitor lock that lease, gossip and failover handling hold
+    private final ReentrantLock topologyLock = new ReentrantLock();
+
+    private void topologyChanged() {
+        topologyChanged = true;
+    }
+
+    /**
+     * Returns the cached topology, rebuilding it only if something it shows has changed.
+     * Heartbeat ages are as of the last rebuild; the death checker refreshes them every check.
+     * Called on the selector thread, so it never waits: while another thread is rebuilding,
+     * the previous topology is served.
+     */
+    private Topology topology(Map<Integer, Long> lastSeen, Set<Integer> alive) {
+        Topology current = topology;
+        if ((current == null || topologyChanged || current.primaryPort != currentPrimaryPort
+                || current.epoch != epoch || current.leaderId != leaderId()) && topologyLock.tryLock()) {
+            try {
+                current = buildTopology(lastSeen, alive);
+            } finally {
+                topologyLock.unlock();
+            }
+        }
+        if (current == null) {
+            // Nothing published yet (first request races the first build): wait for the build once
+            current = rebuildTopology(lastSeen, alive);
+        }
+        return current;
+    }
+
+    private Topology rebuildTopology(Map<Integer, Long> lastSeen, Set<Integer> alive) {
+        topologyLock.lock();
+        try {
+            return buildTopology(lastSeen, alive);
+        } finally {
+            topologyLock.unlock();
+        }
+    }
+
+    // Caller holds topologyLock
+    private Topology buildTopology(Map<Integer, Long> lastSeen, Set<Integer> alive) {
+        // Cleared first, so a change that races with this rebuild triggers another one
+        topologyChanged = false;
+        int primary = currentPrimaryPort;
+        long now = System.currentTimeMillis();
+
+        // TOPOLOGY|[epoch]|[primary port]|[leader id]|[host:port]=[role],[ALIVE/DEAD],[heartbeat age ms],[node epoch],[seq],[load],[clients];...
+        StringBuilder reply = new StringBuilder("TOPOLOGY|").append(epoch).append('|').append(primary)
+                .append('|').append(leaderId()).append('|');
+        for (int port : allServerPortsDesc) {
+            Long seen = lastSeen.get(port);
+            reply.append(ClusterConfig.hostOf(port)).append(':').append(port).append('=')
+                    .append(port == primary ? "PRIMARY" : "BACKUP").append(',')
+                    .append(alive.contains(port) ? "ALIVE" : "DEAD").append(',')
+                    .append(seen != null ? now - seen : -1).append(',')
+                    .append(report(port).encode()).append(';');
+        }
+
+        // --- REPORT STATUS SUMMARY (Requested Port-Based Format) ---
+        StringBuilder statusLine = new StringBuilder("SYSTEM STATUS: ");
+        List<Integer> aliveList = new ArrayList<>(alive);
+
+        // Sort the list for consistent output (A->Z, or in this case, low-to-high port)
+        aliveList.sort(Comparator.naturalOrder());
+
+        for (int i = 0; i < aliveList.size(); i++) {
+            int port = aliveList.get(i);
+
+            if (port == primary) {
+                statusLine.append("[").append(port).append(" and Primary] | ");
+            } else {
+                statusLine.append("[").append(port).append(" and Alive] | ");
+            }
+        }
+
+        // If there are no alive servers, print a simple status
+        if (aliveList.isEmpty()) {
+            statusLine.append("[No servers alive]");
+        } else {
+            // Remove the trailing " | "
+            statusLine.setLength(statusLine.length() - 3);
+        }
+
+        // Append the current designated primary port if it's not present (e.g., if it's 0)
+        if (primary > 0 && !alive.contains(primary)) {
+            statusLine.append(" | [Designated Primary Port ").append(primary).append(" is DEAD]");
+        } else if (primary == 0) {
+            statusLine.append(" | [No designated Primary]");
+        }
+
+        topology = new Topology(primary, epoch, leaderId(), reply.toString(), statusLine.toString());
+        return topology;
     }
 
 
     public static void main(String[] args) {
-        Monitor monitor = Monitor.getInstance();
+        // Optional argument: this Monitor's id (0..MONITOR_COUNT-1)
+        int monitorId = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+        if (monitorId < 0 || monitorId >= ClusterConfig.MONITOR_COUNT) {
+            System.err.println("Usage: java -Dsrms.monitors=<count> Monitor [id < count]");
+            System.exit(1);
+        }
+        // Leadership needs a majority of all Monitors: with 2, losing either one stops all writes
+        if (ClusterConfig.MONITOR_COUNT == 2) {
+            System.err.println("srms.monitors=2 tolerates no Monitor failure; use 1, or an odd count of at least 3");
+            System.exit(1);
+        }
+        if (ClusterConfig.MONITOR_COUNT % 2 == 0) {
+            System.err.println("Warning: srms.monitors=" + ClusterConfig.MONITOR_COUNT
+                    + " tolerates no more Monitor failures than " + (ClusterConfig.MONITOR_COUNT - 1));
+        }
+        Monitor monitor = Monitor.getInstance(monitorId);
         
         // Register observers
         monitor.addObserver(new LoggingObserver());
@@ -75,8 +377,6 @@ public class Monitor {
     }
 
     public void start(String[] args) {
-        final int TIMEOUT_MS = 5000;
-
         // Map key is now the Port Number
         final Map<Integer, Long> lastSeen = new ConcurrentHashMap<>();
         final Set<Integer> alive = ConcurrentHashMap.newKeySet();
@@ -87,19 +387,34 @@ public class Monitor {
         checkerThread.start();
 
         // 2. START THE CLIENT API LISTENER THREAD
-        Thread clientApiThread = new Thread(() -> runClientApiListener());
+        Thread clientApiThread = new Thread(() -> runClientApiListener(lastSeen, alive));
         clientApiThread.setDaemon(true);
         clientApiThread.start();
 
-        // 3. MAIN THREAD ACCEPTS HEARTBEATS
-        try (ServerSocket ss = new ServerSocket(HEARTBEAT_PORT)) {
+        // 3. START THE PEER GOSSIP THREAD (only needed with more than one Monitor)
+        if (ClusterConfig.MONITOR_COUNT > 1) {
+            Thread gossipThread = new Thread(() -> runPeerGossip(lastSeen, alive), "monitor-gossip");
+            gossipThread.setDaemon(true);
+            gossipThread.start();
+        }
+
+        // 4. MAIN THREAD ACCEPTS HEARTBEATS, each connection handled on its own pooled thread so a
+        // slow peer (or an injected link delay) never holds up the heartbeats of other nodes
+        ExecutorService heartbeatHandlers = Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "heartbeat-handler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (ServerSocket ss = SocketTuning.tune(new ServerSocket())) {
+            ss.bind(new InetSocketAddress(HEARTBEAT_PORT));
+            System.out.println("Monitor " + monitorId + " of " + ClusterConfig.MONITOR_COUNT);
             System.out.println("Monitor listening for heartbeats on port " + HEARTBEAT_PORT);
             System.out.println("Monitor listening for client API requests on port " + CLIENT_API_PORT);
 
             while (true) {
                 try {
                     Socket s = ss.accept();
-                    handleHeartbeat(s, lastSeen, alive);
+                    heartbeatHandlers.execute(() -> handleHeartbeat(s, lastSeen, alive));
                 } catch (IOException e) {
                     System.err.println("Monitor heartbeat reception failed: " + e.getMessage());
                 }
@@ -110,39 +425,84 @@ public class Monitor {
     }
 
     /**
-     * Handles incoming heartbeats, expecting [Port #] | [timestamp] format.
+     * Handles incoming heartbeats, expecting [Port #] | [timestamp] | [epoch] | [PRIMARY/BACKUP] |
+     * [message count] | [load] | [clients] format (older nodes may send only the first two or four fields). Each heartbeat is answered with
+     * LEASE|[epoch]|[lease ms] for the current primary, or OK|[epoch]|[leader monitor id].
+     * A heartbeat from a port that is not a member (e.g. a node that joined before this Monitor
+     * restarted) is answered with UNKNOWN, and the node JOINs again.
+     * The same port also accepts membership changes: JOIN|[host]|[port] and LEAVE|[port],
+     * and gossip from peer Monitors: PEER|[id]|[primary port]|[epoch]|[port]=[last seen],[epoch],[seq],[load],[clients];...|[vote]
      */
     private void handleHeartbeat(Socket s, Map<Integer, Long> lastSeen, Set<Integer> alive) {
+        FlightEvents.Heartbeat event = new FlightEvents.Heartbeat();
+        event.begin();
         try (BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()))) {
+            SocketTuning.tune(s);
             String line = in.readLine();
             if (line != null) {
                 String[] parts = line.trim().split("\\|");
 
-                if (parts.length == 2) {
+                if ("JOIN".equals(parts[0]) || "LEAVE".equals(parts[0])) {
+                    handleMembershipChange(s, parts, lastSeen, alive);
+                } else if ("PEER".equals(parts[0])) {
+                    handlePeerGossip(parts, lastSeen, alive);
+                } else if (parts.length >= 2) {
                     int port;
                     long sentTimestamp;
+                    long nodeEpoch;
+                    boolean reportsPrimary;
+                    NodeReport report;
 
                     try {
                         port = Integer.parseInt(parts[0].trim());
                         sentTimestamp = Long.parseLong(parts[1].trim());
+                        nodeEpoch = parts.length > 2 ? Long.parseLong(parts[2].trim()) : epoch;
+                        reportsPrimary = parts.length > 3 && "PRIMARY".equals(parts[3].trim());
+                        report = parts.length > 6
+                                ? new NodeReport(nodeEpoch, Long.parseLong(parts[4].trim()),
+                                        Integer.parseInt(parts[5].trim()), Integer.parseInt(parts[6].trim()))
+                                : new NodeReport(nodeEpoch, -1, 0, 0);
                     } catch (NumberFormatException e) {
                         System.err.println("Invalid port or timestamp received: " + line);
                         return;
                     }
 
-                    if (ALL_SERVER_PORTS_DESC.contains(port)) {
+                    if (ClusterConfig.isMember(port)) {
                         long now = System.currentTimeMillis();
                         lastSeen.put(port, now);
 
-                        if (!alive.contains(port)) {
-                            alive.add(port);
+                        if (alive.add(port)) {
+                            topologyChanged();
                             notifyObservers("SERVER_ALIVE:Port " + port + " is now alive");
                         }
+                        updateReport(port, report);
 
                         // Output format requested: Heartbeat received from [port #] + timestamp
                         System.out.println("Heartbeat received from " + port + " (sent at: " + sentTimestamp + ")");
+
+                        String reply = leaseReply(port, nodeEpoch, reportsPrimary, alive);
+                        if (FaultInjector.deliver(FaultInjector.monitor(monitorId), FaultInjector.node(port))) {
+                            new PrintWriter(s.getOutputStream(), true).println(reply);
+                        }
+
+                        event.end();
+                        if (event.shouldCommit()) {
+                            event.monitorId = monitorId;
+                            event.port = port;
+                            event.role = parts.length > 3 ? parts[3].trim() : null;
+                            event.epoch = nodeEpoch;
+                            event.seq = report.seq;
+                            event.load = report.load;
+                            event.clients = report.clients;
+                            event.transitDelay = now - sentTimestamp;
+                            event.leaseGranted = reply.startsWith("LEASE|");
+                            event.commit();
+                        }
                     } else {
-                        System.err.println("Heartbeat received from unknown port: " + port);
+                        System.err.println("Heartbeat received from unknown port: " + port + " (asking it to JOIN)");
+                        if (FaultInjector.deliver(FaultInjector.monitor(monitorId), FaultInjector.node(port))) {
+                            new PrintWriter(s.getOutputStream(), true).println("UNKNOWN");
+                        }
                     }
                 } else {
                     System.err.println("Malformed heartbeat received: " + line);
@@ -156,39 +516,244 @@ public class Monitor {
     }
 
     /**
-     * Listens on the API port and sends the current primary port number.
+     * Decides how to answer a heartbeat. The leader renews the lease of the current primary;
+     * everyone else just learns the current epoch, which makes a fenced-off primary step down.
      */
-    private void runClientApiListener() {
-        try (ServerSocket apiSocket = new ServerSocket(CLIENT_API_PORT)) {
-            while (true) {
-                try {
-                    Socket client = apiSocket.accept();
-                    handleClientApiRequest(client);
+    private synchronized String leaseReply(int port, long nodeEpoch, boolean reportsPrimary, Set<Integer> alive) {
+        // After a Monitor restart, adopt the newest primary the nodes themselves report
+        if (reportsPrimary && (nodeEpoch > epoch
+                || (nodeEpoch == epoch && port != currentPrimaryPort && !alive.contains(currentPrimaryPort)))) {
+            epoch = nodeEpoch;
+            setCurrentPrimary(port);
+            System.out.println("-> Adopted Port " + port + " as primary (epoch " + epoch + ")");
+        }
+
+        if (isLeader() && port == currentPrimaryPort && reportsPrimary && nodeEpoch == epoch) {
+            leaseExpiresAt = System.currentTimeMillis() + LEASE_MS;
+            return "LEASE|" + epoch + "|" + LEASE_MS;
+        }
+        return "OK|" + epoch + "|" + leaderId();
+    }
+
+    /**
+     * Registers or removes a node at runtime and rebuilds the promotion order.
+     * Replies with the resulting membership so the node can sync its own view.
+     * Requests from nodes are forwarded to peer Monitors with a trailing |PEER marker.
+     */
+    private void handleMembershipChange(Socket s, String[] parts, Map<Integer, Long> lastSeen, Set<Integer> alive) {
+        try {
+            PrintWriter out = new PrintWriter(s.getOutputStream(), true);
+
+            boolean fromPeer = "PEER".equals(parts[parts.length - 1]);
+
+            if ("JOIN".equals(parts[0]) && parts.length == (fromPeer ? 4 : 3)) {
+                String host = parts[1].trim();
+                int port = Integer.parseInt(parts[2].trim());
+
+                if (ClusterConfig.join(host, port)) {
+                    rebuildPromotionOrder();
+                    topologyChanged();
+                    if (port == currentPrimaryPort) {
+                        encodePrimaryReplies(); // The primary's host may have changed
+                    }
+                    notifyObservers("SERVER_JOINED:Port " + port + " on " + host + " joined the cluster");
+                }
+                out.println("JOINED|" + ClusterConfig.encodeMembers());
+
+            } else if ("LEAVE".equals(parts[0]) && parts.length == (fromPeer ? 3 : 2)) {
+                int port = Integer.parseInt(parts[1].trim());
+
+                if (ClusterConfig.leave(port)) {
+                    lastSeen.remove(port);
+                    alive.remove(port);
+                    reports.remove(port);
+                    rebuildPromotionOrder();
+                    topologyChanged();
+                    notifyObservers("SERVER_LEFT:Port " + port + " left the cluster");
+
+                    // A departing primary leaves the cluster without one; the death checker re-promotes.
+                    if (port == currentPrimaryPort) {
+                        setCurrentPrimary(0);
+                    }
+                }
+                out.println("LEFT|" + ClusterConfig.encodeMembers());
+
+            } else {
+                System.err.println("Malformed membership request: " + String.join("|", parts));
+                out.println("ERROR: Invalid Request");
+                return;
+            }
+
+            if (!fromPeer) {
+                sendToPeers(String.join("|", parts) + "|PEER");
+            }
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid port in membership request: " + String.join("|", parts));
+        } catch (IOException e) {
+            System.err.println("Error replying to membership request: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Periodically sends this Monitor's view to its peers: which port it believes is primary,
+     * when it last heard from each node it ingests heartbeats for, and its leader vote.
+     */
+    private void runPeerGossip(Map<Integer, Long> lastSeen, Set<Integer> alive) {
+        while (true) {
+            try {
+                Thread.sleep(PEER_GOSSIP_INTERVAL);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+
+            StringBuilder msg = new StringBuilder("PEER|").append(monitorId).append('|').append(currentPrimaryPort)
+                    .append('|').append(epoch).append('|');
+            for (Map.Entry<Integer, Long> entry : lastSeen.entrySet()) {
+                if (alive.contains(entry.getKey())) {
+                    msg.append(entry.getKey()).append('=').append(entry.getValue());
+                    NodeReport report = reports.get(entry.getKey());
+                    if (report != null) {
+                        msg.append(',').append(report.encode());
+                    }
+                    msg.append(';');
+                }
+            }
+            msg.append('|').append(leaderId());
+            sendToPeers(msg.toString());
+        }
+    }
+
+    // Best-effort, one-line message to every other Monitor's heartbeat port
+    private void sendToPeers(String line) {
+        for (int id = 0; id < ClusterConfig.MONITOR_COUNT; id++) {
+            if (id == monitorId) continue;
+
+            int peerId = id;
+            peerSenders.execute(() -> {
+                try (Socket peer = FaultInjector.connect(FaultInjector.monitor(monitorId), FaultInjector.monitor(peerId),
+                        ClusterConfig.monitorHost(peerId), ClusterConfig.monitorHeartbeatPort(peerId), 500)) {
+                    PrintWriter out = new PrintWriter(peer.getOutputStream(), true);
+                    out.println(line);
                 } catch (IOException e) {
-                    System.err.println("Monitor API reception failed: " + e.getMessage());
+                    // Peer is down; the leader election notices through peerLastSeen
                 }
+            });
+        }
+    }
+
+    /**
+     * Merges a peer's gossip into the local view. Heartbeat times are merged by taking the
+     * newest, and followers adopt the leader's primary so they can answer clients.
+     */
+    private void handlePeerGossip(String[] parts, Map<Integer, Long> lastSeen, Set<Integer> alive) {
+        if (parts.length < 4) {
+            System.err.println("Malformed peer gossip: " + String.join("|", parts));
+            return;
+        }
+        try {
+            int peerId = Integer.parseInt(parts[1].trim());
+            int peerPrimary = Integer.parseInt(parts[2].trim());
+            long peerEpoch = Long.parseLong(parts[3].trim());
+            peerLastSeen.put(peerId, System.currentTimeMillis());
+            if (parts.length > 5) {
+                peerVotes.put(peerId, Integer.parseInt(parts[5].trim()));
             }
+
+            synchronized (this) {
+                if (peerEpoch > epoch) {
+                    epoch = peerEpoch;
+                }
+                if (peerId != monitorId && peerId == leaderId()) {
+                    setCurrentPrimary(peerPrimary);
+                }
+            }
+
+            if (parts.length < 5) return;
+
+            long now = System.currentTimeMillis();
+            for (String entry : parts[4].split(";")) {
+                int eq = entry.indexOf('=');
+                if (eq <= 0) continue;
+
+                // [port]=[last seen] or [port]=[last seen],[epoch],[seq],[load],[clients]
+                int port = Integer.parseInt(entry.substring(0, eq));
+                String[] fields = entry.substring(eq + 1).split(",");
+                long seen = Long.parseLong(fields[0]);
+
+                // Ignore unknown ports and entries that are already stale
+                if (!ClusterConfig.isMember(port) || now - seen > TIMEOUT_MS) continue;
+
+                // Only take the peer's report if its heartbeat is newer than ours
+                Long known = lastSeen.get(port);
+                if (fields.length > 4 && (known == null || seen > known)) {
+                    updateReport(port, new NodeReport(Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+                            Integer.parseInt(fields[3]), Integer.parseInt(fields[4])));
+                }
+                lastSeen.merge(port, seen, Math::max);
+                if (alive.add(port)) {
+                    topologyChanged();
+                    notifyObservers("SERVER_ALIVE:Port " + port + " is now alive (via Monitor " + peerId + ")");
+                }
+            }
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid peer gossip: " + String.join("|", parts));
+        }
+    }
+
+    /**
+     * Serves the client API on a single NIO selector thread (see MonitorApiServer).
+     */
+    private void runClientApiListener(Map<Integer, Long> lastSeen, Set<Integer> alive) {
+        try {
+            new MonitorApiServer(CLIENT_API_PORT, request -> handleClientApiRequest(request, lastSeen, alive)).run();
         } catch (IOException e) {
             System.err.println("Monitor API failed to start: " + e.getMessage());
         }
     }
 
-    private void handleClientApiRequest(Socket client) {
-        try (BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream()));
-             PrintWriter out = new PrintWriter(client.getOutputStream(), true)) {
-
-            String request = in.readLine();
-            if ("GET_PRIMARY".equals(request)) {
+    // Runs on the selector thread, so it must never block; hot requests only read a pre-encoded buffer
+    private ByteBuffer handleClientApiRequest(String request, Map<Integer, Long> lastSeen, Set<Integer> alive) {
+        switch (request) {
+            case "GET_PRIMARY":
                 // Send the current Primary port number
-                out.println(currentPrimaryPort > 0 ? currentPrimaryPort : 0);
-            } else {
-                out.println("ERROR: Invalid Request");
+                return primaryReply.get();
+            case "GET_PRIMARY_ADDR":
+                return primaryAddrReply.get();
+            case "GET_MEMBERS":
+                return MonitorApiServer.encode(ClusterConfig.encodeMembers());
+            case "TOPOLOGY":
+                // Every node's role, liveness, heartbeat age and epoch, served from the cache
+                return topology(lastSeen, alive).encodedReply;
+            case "STATUS":
+                return topology(lastSeen, alive).encodedStatus;
+            default:
+                return INVALID_REQUEST;
+        }
+    }
+
+    /**
+     * Orders the alive servers for promotion: highest replicated message count first (least state
+     * lost, least catch-up), then lowest load, then fewest clients. Ties keep the port order.
+     */
+    private List<Integer> promotionCandidates(Set<Integer> alive) {
+        List<Integer> candidates = new ArrayList<>();
+        for (int port : allServerPortsDesc) {
+            if (alive.contains(port)) {
+                candidates.add(port);
             }
-        } catch (IOException e) {
-            System.err.println("Error handling client API request: " + e.getMessage());
-        } finally {
-            try { client.close(); } catch (IOException ignored) {}
         }
+        // List.sort is stable, so equally good candidates stay in descending port order
+        candidates.sort(Comparator.comparingLong((Integer port) -> report(port).seq).reversed()
+                .thenComparingInt(port -> report(port).load)
+                .thenComparingInt(port -> report(port).clients));
+
+        StringBuilder ranking = new StringBuilder("-> Promotion candidates:");
+        for (int port : candidates) {
+            ranking.append(" [").append(port).append(": ").append(report(port)).append(']');
+        }
+        System.out.println(ranking);
+        return candidates;
     }
 
     /**
@@ -196,6 +761,7 @@ public class Monitor {
      */
     private void runDeathChecker(Map<Integer, Long> lastSeen, Set<Integer> alive, final int TIMEOUT_MS) {
         final int CHECK_INTERVAL = 2000;
+        boolean wasLeader = false;
 
         while (true) {
             try {
@@ -219,9 +785,18 @@ public class Monitor {
 
                     if (timeLapsed > TIMEOUT_MS) {
                         if (alive.remove(port)) {
+                            topologyChanged();
                             if (port == currentPrimaryPort) {
                                 primaryFailed = true;
                             }
+                            FlightEvents.NodeDeath death = new FlightEvents.NodeDeath();
+                            if (death.shouldCommit()) {
+                                death.monitorId = monitorId;
+                                death.port = port;
+                                death.silence = timeLapsed;
+                                death.wasPrimary = port == currentPrimaryPort;
+                                death.commit();
+                            }
                             String deathMsg = "!!! Server on Port " + port + " is DEAD (no heartbeat for " + timeLapsed + "ms) !!!";
                             System.err.println(deathMsg);
                             notifyObservers("SERVER_DEATH:Port " + port + " DEAD");
@@ -230,9 +805,39 @@ public class Monitor {
                     }
                 }
 
+                // --- 1b. LEADER ELECTION AMONG MONITORS ---
+                // Only the leader runs failover. A Monitor that has just taken over checks that
+                // the primary it inherited is still alive, since the old leader may have died mid-failover.
+                boolean leader = isLeader();
+                if (leader && !wasLeader && ClusterConfig.MONITOR_COUNT > 1) {
+                    System.out.println("\n*** MONITOR " + monitorId + " IS NOW THE LEADER ***");
+                    notifyObservers("MONITOR_LEADER:Monitor " + monitorId + " is now leader");
+                    boolean pastStartup = now - startedAt > PEER_TIMEOUT_MS;
+                    if (pastStartup && currentPrimaryPort > 0 && !alive.contains(currentPrimaryPort)) {
+                        primaryFailed = true;
+                    }
+                    // We don't know when the old leader last renewed the lease, so assume just now
+                    leaseExpiresAt = now + LEASE_MS;
+                }
+                wasLeader = leader;
+
+                if (!leader && (primaryFailed || currentPrimaryPort <= 0)) {
+                    System.out.println("-> Primary is down; failover is handled by leader Monitor " + leaderId());
+                }
+
                 // --- 2. TRIGGER PROMOTION IF PRIMARY IS DOWN (Highest Port Wins) ---
                 // The condition is met if the primary failed OR if the primary is currently unset (<= 0)
-                if (primaryFailed || currentPrimaryPort <= 0) {
+                boolean needsPromotion = leader && (primaryFailed || currentPrimaryPort <= 0);
+
+                // Never promote while the old primary could still hold a valid lease (no split brain)
+                if (needsPromotion && now < leaseExpiresAt + LEASE_GRACE_MS) {
+                    System.out.println("-> Waiting " + (leaseExpiresAt + LEASE_GRACE_MS - now)
+                            + "ms for the old primary's lease to expire before promoting");
+                    setCurrentPrimary(0); // Retried as "unset" on the next check
+                    needsPromotion = false;
+                }
+
+                if (needsPromotion) {
 
                     if (currentPrimaryPort <= 0) {
                         System.out.println("\n*** PRIMARY IS UNSET. INITIATING RE-PROMOTION ***");
@@ -243,81 +848,73 @@ public class Monitor {
                     }
 
                     int newPrimaryPort = 0;
+                    FlightEvents.Failover failover = new FlightEvents.Failover();
+                    failover.begin();
+                    failover.oldPrimary = currentPrimaryPort;
 
-                    // CORE FAILOVER LOGIC: Find the ABSOLUTE highest port server that is ALIVE AND ACCEPTS CONNECTION.
-                    for (int port : ALL_SERVER_PORTS_DESC) {
+                    // CORE FAILOVER LOGIC: Promote the most up-to-date, least-loaded server that is ALIVE AND ACCEPTS CONNECTION.
+                    for (int port : promotionCandidates(alive)) {
 
-                        // 1. Check if candidate is in the 'alive' set
+                        // 1. Check if candidate is still in the 'alive' set
                         if (alive.contains(port)) {
 
-                            try (Socket failoverSocket = new Socket("localhost", port);
+                            // Every attempt consumes an epoch, so a half-delivered PROMOTE can never share one
+                            long promotionEpoch;
+                            synchronized (this) {
+                                promotionEpoch = nextPromotionEpoch();
+                            }
+                            failover.attempts++;
+                            FlightEvents.PromotionAttempt attempt = new FlightEvents.PromotionAttempt();
+                            attempt.begin();
+                            attempt.monitorId = monitorId;
+                            attempt.port = port;
+                            attempt.epoch = promotionEpoch;
+
+                            try (Socket failoverSocket = FaultInjector.connect(FaultInjector.monitor(monitorId),
+                                    FaultInjector.node(port), ClusterConfig.hostOf(port), port, 1000);
                                  PrintWriter out = new PrintWriter(failoverSocket.getOutputStream(), true)) {
 
                                 // --- SUCCESSFUL PROMOTION ---
-                                out.println("PROMOTE");
-                                System.out.println("-> SENT PROMOTE COMMAND to Port " + port);
+                                out.println("PROMOTE|" + promotionEpoch + "|" + LEASE_MS);
+                                System.out.println("-> SENT PROMOTE COMMAND to Port " + port + " (epoch " + promotionEpoch + ")");
 
                                 // Promotion Successful: Update and break loop
-                                currentPrimaryPort = port;
+                                leaseExpiresAt = System.currentTimeMillis() + LEASE_MS;
+                                setCurrentPrimary(port);
                                 newPrimaryPort = port;
 
                                 // Log the client notification (as requested)
                                 System.out.println("-> CLIENT NOTIFICATION: New Primary is Port " + currentPrimaryPort);
                                 notifyObservers("PROMOTION_SUCCESS:Port " + port + " promoted to PRIMARY");
 
+                                attempt.succeeded = true;
+                                attempt.commit();
                                 break;
 
                             } catch (IOException promotionEx) {
                                 // --- PROMOTION FAILURE (e.g., Connection Refused) ---
                                 System.err.println("-> ERROR: Failed to promote Port " + port + ". Server is ALIVE but won't accept promotion: " + promotionEx.getMessage());
+                                attempt.error = promotionEx.getMessage();
+                                attempt.commit();
                                 // Do NOT remove from alive, just move to the next highest port.
                             }
                         }
                     } // End of port iteration loop
+                    failover.monitorId = monitorId;
+                    failover.newPrimary = newPrimaryPort;
+                    failover.commit();
 
                     // --- 3. FINAL STATUS CHECK AFTER PROMOTION ATTEMPTS ---
                     if (newPrimaryPort == 0) {
                         System.err.println("-> FATAL: No available server could be promoted.");
-                        currentPrimaryPort = 0; // Set to 0 to indicate no active primary
+                        setCurrentPrimary(0); // Set to 0 to indicate no active primary
                         notifyObservers("PROMOTION_FAILED:No available server to promote");
                     }
                 }
 
                 // --- 4. REPORT STATUS SUMMARY (Requested Port-Based Format) ---
-
-                StringBuilder statusLine = new StringBuilder("SYSTEM STATUS: ");
-                List<Integer> aliveList = new ArrayList<>(alive);
-
-                // Sort the list for consistent output (A->Z, or in this case, low-to-high port)
-                aliveList.sort(Comparator.naturalOrder());
-
-                for (int i = 0; i < aliveList.size(); i++) {
-                    int port = aliveList.get(i);
-
-                    if (port == currentPrimaryPort) {
-                        statusLine.append("[").append(port).append(" and Primary] | ");
-                    } else {
-                        statusLine.append("[").append(port).append(" and Alive] | ");
-                    }
-                }
-
-                // If there are no alive servers, print a simple status
-                if (aliveList.isEmpty()) {
-                    statusLine.append("[No servers alive]");
-                } else {
-                    // Remove the trailing " | "
-                    statusLine.setLength(statusLine.length() - 3);
-                }
-
-                // Append the current designated primary port if it's not present (e.g., if it's 0)
-                if (currentPrimaryPort > 0 && !alive.contains(currentPrimaryPort)) {
-                    statusLine.append(" | [Designated Primary Port ").append(currentPrimaryPort).append(" is DEAD]");
-                } else if (currentPrimaryPort == 0) {
-                    statusLine.append(" | [No designated Primary]");
-                }
-
-
-                System.out.println(statusLine.toString() + "\n");
+                // Rebuilt once per check so the cached heartbeat ages stay current
+                System.out.println(rebuildTopology(lastSeen, alive).statusLine + "\n");
 
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
@@ -0,0 +1,168 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Non-blocking server for the Monitor's client API.
+ * One selector thread serves every connection. A connection stays open for any number of
+ * newline-terminated requests and gets one reply line per request, in order; pipelined requests
+ * are answered with a single gathering write. Replies are pre-encoded buffers owned by the
+ * Handler and are never copied, only duplicated, so one buffer can serve all connections at once.
+ */
+public class MonitorApiServer {
+
+    /**
+     * Answers one request line.
+     */
+    public interface Handler {
+        /**
+         * @return the reply line, encoded with encode(); the server only reads duplicates of it
+         */
+        ByteBuffer handle(String request);
+    }
+
+    private static final int MAX_REQUEST_BYTES = 1024;
+    // A client that stops reading its replies is not read from until it catches up
+    private static final int MAX_PENDING_REPLIES = 1024;
+
+    // Per-connection buffers
+    private static final class Connection {
+        final ByteBuffer in = ByteBuffer.allocate(MAX_REQUEST_BYTES);
+        final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+        boolean closing = false; // Peer closed its side; finish writing, then close
+    }
+
+    private final int port;
+    private final Handler handler;
+
+    public MonitorApiServer(int port, Handler handler) {
+        this.port = port;
+        this.handler = handler;
+    }
+
+    /**
+     * Encodes a reply line (a newline is appended) into a read-only buffer ready to be served.
+     */
+    public static ByteBuffer encode(String line) {
+        byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes).flip();
+        return buffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * Runs the selector loop on the calling thread.
+     * @throws IOException if the port cannot be bound
+     */
+    public void run() throws IOException {
+        try (Selector selector = Selector.open();
+             ServerSocketChannel server = ServerSocketChannel.open()) {
+            SocketTuning.tune(server.socket());
+            server.bind(new InetSocketAddress(port), 1024);
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+
+            while (true) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (!key.isValid()) continue;
+                        if (key.isAcceptable()) {
+                            accept(server, selector);
+                        } else {
+                            if (key.isReadable()) read(key);
+                            if (key.isValid()) write(key);
+                        }
+                    } catch (IOException e) {
+                        close(key);
+                    }
+                }
+            }
+        }
+    }
+
+    private void accept(ServerSocketChannel server, Selector selector) throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            SocketTuning.tune(channel.socket());
+            channel.register(selector, SelectionKey.OP_READ, new Connection());
+        }
+    }
+
+    // Reads what is available and queues a reply for every complete request line
+    private void read(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection conn = (Connection) key.attachment();
+
+        if (channel.read(conn.in) < 0) {
+            conn.closing = true;
+        }
+
+        ByteBuffer in = conn.in;
+        in.flip();
+        int lineStart = 0;
+        for (int i = in.position(); i < in.limit(); i++) {
+            if (in.get(i) == '\n') {
+                int end = i > lineStart && in.get(i - 1) == '\r' ? i - 1 : i;
+                byte[] line = new byte[end - lineStart];
+                in.get(lineStart, line);
+                conn.out.add(reply(new String(line, StandardCharsets.UTF_8)));
+                lineStart = i + 1;
+            }
+        }
+        in.position(lineStart);
+        in.compact();
+
+        if (!in.hasRemaining()) {
+            throw new IOException("Request longer than " + MAX_REQUEST_BYTES + " bytes");
+        }
+    }
+
+    private ByteBuffer reply(String request) {
+        try {
+            return handler.handle(request.trim()).duplicate();
+        } catch (RuntimeException e) {
+            System.err.println("Error handling client API request: " + e);
+            return encode("ERROR: " + e.getMessage());
+        }
+    }
+
+    // Writes queued replies (one gathering write), then decides what to wait for next
+    private void write(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection conn = (Connection) key.attachment();
+
+        if (!conn.out.isEmpty()) {
+            channel.write(conn.out.toArray(new ByteBuffer[0]));
+            while (!conn.out.isEmpty() && !conn.out.peek().hasRemaining()) {
+                conn.out.poll();
+            }
+        }
+
+        if (conn.out.isEmpty() && conn.closing) {
+            close(key);
+            return;
+        }
+        int ops = conn.out.isEmpty() ? 0 : SelectionKey.OP_WRITE;
+        if (!conn.closing && conn.out.size() < MAX_PENDING_REPLIES) {
+            ops |= SelectionKey.OP_READ;
+        }
+        key.interestOps(ops);
+    }
+
+    private void close(SelectionKey key) {
+        key.cancel();
+        try { key.channel().close(); } catch (IOException ignored) {}
+    }
+}
@@ -0,0 +1,109 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Objects;
+
+/**
+ * Primary discovery shared by Client sessions.
+ * Caches the primary address reported by the Monitors, so any number of sessions cost one
+ * Monitor lookup per failover instead of one per connection. A session that finds the primary
+ * gone invalidates the cached address; the next caller looks it up again while the others wait
+ * for that answer instead of querying the Monitors themselves.
+ */
+public class PrimaryDirectory {
+
+    private static final PrimaryDirectory SHARED = new PrimaryDirectory();
+
+    // A failed lookup is not repeated sooner than this, however many sessions ask
+    private static final int MIN_LOOKUP_INTERVAL_MS = 500;
+
+    // The primary's address, or null while unknown
+    private volatile InetSocketAddress primary;
+    private long lastLookupAt = 0;
+
+    /**
+     * The directory used by every Client that is not given its own.
+     */
+    public static PrimaryDirectory shared() {
+        return SHARED;
+    }
+
+    /**
+     * Returns the cached primary, looking it up if it is unknown.
+     * @return the primary's address, or null if no Monitor currently reports one
+     */
+    public InetSocketAddress primary() {
+        InetSocketAddress cached = primary;
+        if (cached != null) return cached;
+
+        synchronized (this) {
+            if (primary == null && System.currentTimeMillis() - lastLookupAt >= MIN_LOOKUP_INTERVAL_MS) {
+                primary = lookup();
+            }
+            return primary;
+        }
+    }
+
+    /**
+     * Forgets the primary if it is still the given address (a newer answer is kept).
+     */
+    public synchronized void invalidate(InetSocketAddress stale) {
+        if (Objects.equals(primary, stale)) {
+            primary = null;
+        }
+    }
+
+    /**
+     * Asks the Monitors again, regardless of the cached value.
+     * @return the primary's address, or null if no Monitor currently reports one
+     */
+    public synchronized InetSocketAddress refresh() {
+        primary = lookup();
+        return primary;
+    }
+
+    /**
+     * Queries the Monitors for the address of the current Primary server.
+     * Any Monitor can answer; the next one is tried if a Monitor is unreachable.
+     */
+    private InetSocketAddress lookup() {
+        lastLookupAt = System.currentTimeMillis();
+        for (int id = 0; id < ClusterConfig.MONITOR_COUNT; id++) {
+            try {
+                return lookup(id);
+            } catch (IOException e) {
+                System.err.println("Failed to connect to Monitor on port " + ClusterConfig.monitorApiPort(id) + ". Trying next monitor.");
+            }
+        }
+        return null;
+    }
+
+    private InetSocketAddress lookup(int monitorId) throws IOException {
+        try (Socket socket = FaultInjector.connect(FaultInjector.CLIENT, FaultInjector.monitor(monitorId),
+                ClusterConfig.monitorHost(monitorId), ClusterConfig.monitorApiPort(monitorId), 2000);
+             PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+
+            // Set a short read timeout to prevent blocking indefinitely if monitor is silent
+            socket.setSoTimeout(2000);
+
+            out.println("GET_PRIMARY_ADDR");
+            String response = in.readLine();
+
+            if (response != null && response.matches(".+:\\d+")) {
+                int sep = response.lastIndexOf(':');
+                String host = response.substring(0, sep);
+                int port = Integer.parseInt(response.substring(sep + 1));
+                return new InetSocketAddress(host, port);
+            } else if ("0".equals(response)) {
+                return null; // No active Primary
+            } else {
+                System.err.println("Monitor returned invalid response or error: " + response);
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,452 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+
+/**
+ * Sends the primary's updates to the backups from a bounded queue.
+ * A single background thread drains the queue in order and writes every queued update to each
+ * backup over a persistent connection, so one flush carries a whole batch. When the queue is
+ * full, offer() fails and the primary answers BUSY instead of buffering without limit.
+ *
+ * In star mode (the default) the primary sends to every backup itself. In chain and tree mode
+ * the primary only sends to its children in a Route, and each backup forwards what it applies to
+ * its own children, so the primary's fan-out stays the same however many backups there are.
+ *
+ * An injected delay on one link (see FaultInjector) holds back only the writes on that link; the
+ * replicator thread moves on to the other backups.
+ */
+public class Replicator {
+
+    /**
+     * One replicated update: its sequence number and the line sent to backups.
+     */
+    public static final class Update {
+        final long seq;
+        final String line;
+
+        Update(long seq, String line) {
+            this.seq = seq;
+            this.line = line;
+        }
+    }
+
+    /**
+     * Forwarding order for chain/tree replication: ROUTE|[epoch]|[fanout]|[host:port],[host:port],...
+     * The primary comes first; the node at index i forwards to the nodes at indexes
+     * i*fanout+1 .. i*fanout+fanout, so fanout 1 is a chain. Sent ahead of the updates on each link.
+     * Routes carry hosts, so a backup can forward to nodes that joined after its membership view.
+     */
+    public static final class Route {
+        final long epoch;
+        final int fanout;
+        final List<ClusterConfig.NodeInfo> nodes;
+        final String line;
+
+        Route(long epoch, int fanout, List<ClusterConfig.NodeInfo> nodes) {
+            this.epoch = epoch;
+            this.fanout = fanout;
+            this.nodes = nodes;
+            StringBuilder sb = new StringBuilder("ROUTE|").append(epoch).append('|').append(fanout).append('|');
+            for (int i = 0; i < nodes.size(); i++) {
+                if (i > 0) sb.append(',');
+                sb.append(nodes.get(i).host).append(':').append(nodes.get(i).port);
+            }
+            this.line = sb.toString();
+        }
+
+        /**
+         * @throws NumberFormatException if the line is not a valid route
+         */
+        public static Route parse(String line) {
+            String[] parts = line.split("\\|");
+            if (parts.length != 4) throw new NumberFormatException("Malformed route: " + line);
+            List<ClusterConfig.NodeInfo> nodes = new ArrayList<>();
+            for (String address : parts[3].split(",")) {
+                int sep = address.lastIndexOf(':');
+                if (sep < 0) throw new NumberFormatException("Malformed route entry: " + address);
+                nodes.add(new ClusterConfig.NodeInfo(address.substring(0, sep),
+                        Integer.parseInt(address.substring(sep + 1)), ServerNode.Role.BACKUP));
+            }
+            return new Route(Long.parseLong(parts[1]), Math.max(1, Integer.parseInt(parts[2])), nodes);
+        }
+
+        public long epoch() {
+            return epoch;
+        }
+
+        // The nodes the given node forwards to
+        List<ClusterConfig.NodeInfo> children(int port) {
+            int index = 0;
+            while (index < nodes.size() && nodes.get(index).port != port) {
+                index++;
+            }
+            if (index == nodes.size()) return Collections.emptyList();
+            int first = index * fanout + 1;
+            return nodes.subList(Math.min(first, nodes.size()), Math.min(first + fanout, nodes.size()));
+        }
+    }
+
+    // A persistent connection to one backup
+    private static final class Link {
+        final Socket socket;
+        final PrintWriter out;
+        String routeSent; // Last ROUTE line sent on this link
+        // Created the first time an injected delay applies to this link. From then on every batch
+        // for the link goes through this one thread, in order, each waiting out its own delay.
+        private ExecutorService heldWrites;
+        private long heldUntil; // When the last held-back batch is due; replicator thread only
+
+        Link(Socket socket) throws IOException {
+            this.socket = socket;
+            this.out = new PrintWriter(socket.getOutputStream(), false);
+        }
+
+        /**
+         * Writes the route line (if not null) and the batch, and flushes.
+         * @return false if the connection failed
+         */
+        synchronized boolean write(String routeLine, List<Update> batch) {
+            if (routeLine != null) {
+                out.println(routeLine);
+            }
+            for (Update update : batch) {
+                out.println(update.line);
+            }
+            out.flush();
+            return !out.checkError();
+        }
+
+        boolean holding() {
+            return heldWrites != null;
+        }
+
+        // Writes the batch once delayMs has passed, and never before batches held back earlier.
+        // A failed write closes the socket, so the next send() reconnects.
+        void writeLater(String routeLine, List<Update> batch, long delayMs) {
+            if (heldWrites == null) {
+                int port = socket.getPort();
+                heldWrites = Executors.newSingleThreadExecutor(task -> {
+                    Thread thread = new Thread(task, "replication-delay-" + port);
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            heldUntil = Math.max(System.currentTimeMillis() + delayMs, heldUntil);
+            long due = heldUntil;
+            List<Update> copy = new ArrayList<>(batch); // The caller reuses its batch list
+            heldWrites.execute(() -> {
+                try {
+                    long wait = due - System.currentTimeMillis();
+                    if (wait > 0) Thread.sleep(wait);
+                } catch (InterruptedException e) {
+                    return; // Link closed
+                }
+                if (!write(routeLine, copy)) {
+                    close();
+                }
+            });
+        }
+
+        void close() {
+            if (heldWrites != null) {
+                heldWrites.shutdownNow();
+            }
+            try { socket.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    private static final int CONNECT_TIMEOUT_MS = 500;
+
+    private final int serverPort;
+    private final BlockingQueue<Update> queue;
+    // --- REPLICATION TOPOLOGY ---
+    // 0 for star mode (no routes), otherwise the fan-out of each node
+    private final int fanout;
+    // Whether this node is currently the primary, and its epoch (stamped on the routes it builds)
+    private final BooleanSupplier isRoot;
+    private final LongSupplier epoch;
+    // The route received from upstream, used while this node is a backup
+    private volatile Route upstreamRoute;
+    // Only touched by the replicator thread
+    private final Map<Integer, Link> links = new HashMap<>();
+
+    // Highest sequence number this primary has handed to at least one backup
+    private volatile long replicatedSeq = 0;
+    private volatile boolean running = true;
+    private Thread thread;
+
+    public Replicator(int serverPort, int capacity, BooleanSupplier isRoot, LongSupplier epoch) {
+        this.serverPort = serverPort;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.isRoot = isRoot;
+        this.epoch = epoch;
+        switch (ClusterConfig.REPLICATION_TOPOLOGY) {
+            case "chain":
+                this.fanout = 1;
+                break;
+            case "tree":
+                this.fanout = ClusterConfig.REPLICATION_FANOUT;
+                break;
+            default:
+                this.fanout = 0;
+        }
+    }
+
+    public void start() {
+        thread = new Thread(this::run, "replicator-" + serverPort);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Queues an update for the backups.
+     * @return false if the queue is full (the caller should answer BUSY)
+     */
+    public boolean offer(long seq, String line) {
+        return queue.offer(new Update(seq, line));
+    }
+
+    /**
+     * Records that every update up to seq reached the backups some other way, e.g. sent by the
+     * previous primary before this node was promoted.
+     */
+    public synchronized void markReplicated(long seq) {
+        if (seq > replicatedSeq) {
+            replicatedSeq = seq;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Backup side: installs the route received from upstream (the caller checks its epoch).
+     */
+    public void setRoute(Route route) {
+        Route previous = upstreamRoute;
+        upstreamRoute = route;
+        if (previous == null || !previous.line.equals(route.line)) {
+            System.out.println("[" + serverPort + "] Replication route " + route.line
+                    + "; forwarding to " + route.children(serverPort).stream().map(node -> node.port).collect(Collectors.toList()));
+        }
+    }
+
+    /**
+     * Backup side: queues an applied update for this node's children in the route, if it has any.
+     * A full queue drops the update; the children notice the gap and catch up from the primary.
+     */
+    public void forward(long seq, String line) {
+        Route route = upstreamRoute;
+        if (route != null && !route.children(serverPort).isEmpty()) {
+            queue.offer(new Update(seq, line));
+        }
+    }
+
+    public int queueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Blocks until the update with the given sequence number has been sent, or the timeout passes.
+     * @return true if it was sent in time
+     */
+    public boolean awaitReplicated(long seq, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (this) {
+            while (replicatedSeq < seq) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) return false;
+                wait(remaining);
+            }
+        }
+        return true;
+    }
+
+    private void run() {
+        List<Update> batch = new ArrayList<>();
+        while (running) {
+            try {
+                Update first = queue.poll(ClusterConfig.KEEPALIVE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    // Quiet period: keep the links from being reaped as idle by the backups
+                    keepLinksAlive();
+                    continue;
+                }
+                batch.add(first);
+            } catch (InterruptedException e) {
+                break;
+            }
+            queue.drainTo(batch);
+
+            if (send(batch)) {
+                synchronized (this) {
+                    replicatedSeq = Math.max(replicatedSeq, batch.get(batch.size() - 1).seq);
+                    notifyAll();
+                }
+            }
+            batch.clear();
+        }
+        links.values().forEach(Link::close);
+        links.clear();
+    }
+
+    // Sends an unsolicited PONG (keepalive, never answered) on every open link
+    private void keepLinksAlive() {
+        for (Iterator<Link> it = links.values().iterator(); it.hasNext(); ) {
+            Link link = it.next();
+            boolean failed;
+            synchronized (link) { // Held-back batches may be writing on it
+                link.out.println("PONG");
+                link.out.flush();
+                failed = link.out.checkError();
+            }
+            if (failed) {
+                link.close();
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Writes the batch to this node's children (every backup in star mode), reconnecting links
+     * that have failed. An unreachable child's own children are sent to directly instead.
+     * @return true if this node is the primary and the batch left it on at least one link
+     *         (or there is no backup to send it to), so its writes may be acknowledged
+     */
+    private boolean send(List<Update> batch) {
+        boolean root = isRoot.getAsBoolean();
+        Route route = null;
+        List<ClusterConfig.NodeInfo> targets;
+        if (!root) {
+            route = upstreamRoute;
+            targets = route != null ? route.children(serverPort) : Collections.<ClusterConfig.NodeInfo>emptyList();
+        } else if (fanout > 0) {
+            route = buildRoute();
+            targets = route.children(serverPort);
+        } else {
+            targets = ClusterConfig.members();
+        }
+
+        Deque<ClusterConfig.NodeInfo> pending = new ArrayDeque<>(targets);
+        Set<Integer> visited = new HashSet<>();
+        boolean delivered = false;
+        while (!pending.isEmpty()) {
+            ClusterConfig.NodeInfo node = pending.poll();
+            if (node.port == serverPort || !visited.add(node.port)) continue; // Don't send to self
+
+            SendResult result = sendTo(node, batch, route);
+            if (result == SendResult.DELIVERED) {
+                delivered = true;
+            } else if (result == SendResult.UNREACHABLE && route != null) {
+                // Keep the rest of the chain/tree fed while this node is down
+                pending.addAll(route.children(node.port));
+            }
+        }
+
+        // Drop links to nodes we no longer send to (left the cluster, or the route changed)
+        for (Iterator<Map.Entry<Integer, Link>> it = links.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Integer, Link> entry = it.next();
+            if (!visited.contains(entry.getKey())) {
+                entry.getValue().close();
+                it.remove();
+            }
+        }
+        return root && (delivered || visited.isEmpty());
+    }
+
+    // The primary's route: itself, then the other members in port order
+    private Route buildRoute() {
+        List<ClusterConfig.NodeInfo> nodes = new ArrayList<>();
+        nodes.add(new ClusterConfig.NodeInfo(ClusterConfig.hostOf(serverPort), serverPort, ServerNode.Role.PRIMARY));
+        ClusterConfig.members().stream()
+                .filter(node -> node.port != serverPort)
+                .sorted(Comparator.comparingInt(node -> node.port))
+                .forEach(nodes::add);
+        return new Route(epoch.getAsLong(), fanout, nodes);
+    }
+
+    // Outcome of writing one batch to one node
+    private enum SendResult { DELIVERED, LOST, UNREACHABLE }
+
+    /**
+     * Writes the batch to one node, preceded by the route if the node has not seen it yet.
+     * @return LOST if an injected fault dropped the batch (the node catches up later), or
+     *         UNREACHABLE if the node could not be reached
+     */
+    private SendResult sendTo(ClusterConfig.NodeInfo node, List<Update> batch, Route route) {
+        FlightEvents.ReplicationSend event = new FlightEvents.ReplicationSend();
+        event.begin();
+        boolean delivered = false;
+        try {
+            Link link = links.get(node.port);
+            String from = FaultInjector.node(serverPort);
+            String to = FaultInjector.node(node.port);
+            if (link != null && link.socket.isClosed()) {
+                links.remove(node.port); // A held-back write failed on it
+                link = null;
+            }
+            if (link == null) {
+                link = new Link(FaultInjector.open(from, to, node.host, node.port, CONNECT_TIMEOUT_MS));
+                links.put(node.port, link);
+            }
+            long delay = FaultInjector.delayFor(from, to);
+            if (delay < 0) {
+                return SendResult.LOST; // Injected fault; the backup fetches the batch with CATCHUP
+            }
+
+            String routeLine = null;
+            if (route != null && !route.line.equals(link.routeSent)) {
+                routeLine = route.line;
+                link.routeSent = route.line;
+            }
+            if (delay > 0 || link.holding()) {
+                // Counted as sent, like a write still sitting in the socket buffer
+                link.writeLater(routeLine, batch, delay);
+            } else if (!link.write(routeLine, batch)) {
+                links.remove(node.port).close();
+                throw new IOException("connection lost");
+            }
+            delivered = true;
+            return SendResult.DELIVERED;
+        } catch (IOException e) {
+            System.err.println("Failed to replicate state to backup on port "
+                    + node.port + ": " + e.getMessage());
+            return SendResult.UNREACHABLE;
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.fromPort = serverPort;
+                event.toPort = node.port;
+                event.updates = batch.size();
+                event.firstSeq = batch.get(0).seq;
+                event.lastSeq = batch.get(batch.size() - 1).seq;
+                event.delivered = delivered;
+                event.commit();
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Replies to the most recent client requests, by client-assigned request ID.
+ * Clients send REQ:[request id]:[command] and resend the same line when a reply is lost, for
+ * example because the primary died after applying it. The ID travels inside the replicated
+ * update, so every node records the same entries in the same order; a retry that reaches a
+ * newly promoted primary is answered from here instead of being applied twice.
+ *
+ * The cache holds at most a fixed number of entries and evicts the oldest request first. Eviction
+ * follows insertion (sequence) order rather than access order, so replicas never diverge.
+ */
+public class RequestCache {
+
+    public static final String PREFIX = "REQ:";
+
+    /**
+     * A request that has been applied: the sequence number of its update and its reply
+     * (null for a plain message, whose reply carries the current epoch).
+     */
+    public static final class Entry {
+        final long seq;
+        final String reply;
+
+        Entry(long seq, String reply) {
+            this.seq = seq;
+            this.reply = reply;
+        }
+    }
+
+    private final int capacity;
+    private final LinkedHashMap<String, Entry> entries;
+
+    public RequestCache(int capacity) {
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, false) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > RequestCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * @return the request ID of a REQ:[id]:[command] line, or null if the line carries none
+     */
+    public static String requestId(String line) {
+        int end = idEnd(line);
+        return end < 0 ? null : line.substring(PREFIX.length(), end);
+    }
+
+    /**
+     * @return the command of a REQ:[id]:[command] line, or the line itself if it carries no ID
+     */
+    public static String command(String line) {
+        int end = idEnd(line);
+        return end < 0 ? line : line.substring(end + 1);
+    }
+
+    /**
+     * @return the client part of a request ID ([client id]-[n]), or the whole ID if it has no counter
+     */
+    public static String clientId(String requestId) {
+        int dash = requestId.lastIndexOf('-');
+        return dash > 0 ? requestId.substring(0, dash) : requestId;
+    }
+
+    private static int idEnd(String line) {
+        return line.startsWith(PREFIX) ? line.indexOf(':', PREFIX.length()) : -1;
+    }
+
+    /**
+     * @return the applied request with this ID, or null if it is unknown (never seen, or evicted)
+     */
+    public synchronized Entry get(String requestId) {
+        return entries.get(requestId);
+    }
+
+    public synchronized void put(String requestId, long seq, String reply) {
+        entries.put(requestId, new Entry(seq, reply));
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    // --- SNAPSHOTS ---
+    // Layout: [entry count int] then per entry, oldest first, [id UTF][seq long][has reply boolean][reply UTF]
+
+    public synchronized void writeTo(DataOutputStream out) throws IOException {
+        writeEntries(out, entries);
+    }
+
+    /**
+     * Copies the entries (oldest first) so they can be written to a snapshot without the lock.
+     */
+    public synchronized SnapshotStore.StateWriter capture() {
+        Map<String, Entry> copy = new LinkedHashMap<>(entries);
+        return out -> writeEntries(out, copy);
+    }
+
+    private static void writeEntries(DataOutputStream out, Map<String, Entry> entries) throws IOException {
+        out.writeInt(entries.size());
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            out.writeUTF(e.getKey());
+            out.writeLong(e.getValue().seq);
+            out.writeBoolean(e.getValue().reply != null);
+            if (e.getValue().reply != null) {
+                out.writeUTF(e.getValue().reply);
+            }
+        }
+    }
+
+    public synchronized void readFrom(DataInputStream in) throws IOException {
+        entries.clear();
+        int count = in.readInt();
+        for (int n = 0; n < count; n++) {
+            String requestId = in.readUTF();
+            long seq = in.readLong();
+            String reply = in.readBoolean() ? in.readUTF() : null;
+            entries.put(requestId, new Entry(seq, reply));
+        }
+    }
+}
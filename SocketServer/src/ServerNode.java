@@ -13,7 +13,18 @@ public class ServerNode extends ServerProcess {
     private Role role;
 
     public ServerNode(int port, Role role) {
-        super(port);
+        this(ClusterConfig.HOST, port, role);
+    }
+
+    public ServerNode(String host, int port, Role role) {
+        this(host, port, role, new KeyValueStore());
+    }
+
+    /**
+     * Creates a node that replicates the given state machine instead of the default key-value store.
+     */
+    public ServerNode(String host, int port, Role role, StateMachine stateMachine) {
+        super(host, port, stateMachine);
         this.role = role;
 
         // If this node is PRIMARY at startup, reflect that in the base class state.
@@ -35,6 +46,29 @@ public class ServerNode extends ServerProcess {
                 + this.serverPort + " has been promoted to PRIMARY.");
     }
 
+    /**
+     * Called when a newer primary fenced this node off.
+     * We update the local role and print a notification.
+     */
+    @Override
+    protected void onDemotedToBackup() {
+        this.role = Role.BACKUP;
+
+        System.out.println("[DEMOTION] Server on port "
+                + this.serverPort + " is now a BACKUP (epoch " + this.epoch + ").");
+    }
+
+    /**
+     * Warm restart: a fresh ServerNode with the same host, port and role takes over this node's
+     * listening socket, connections and in-memory state. This instance must not be used afterwards.
+     * @return the replacement node, already serving
+     */
+    public ServerNode warmRestart() {
+        ServerNode replacement = new ServerNode(this.advertisedHost, this.serverPort, this.role);
+        handOffTo(replacement);
+        return replacement;
+    }
+
     /**
      * A small helper method for debugging/logging.
      */
@@ -48,14 +82,15 @@ public class ServerNode extends ServerProcess {
 
     public static void main(String[] args) {
         if (args.length < 2) {
-            System.err.println("Usage: java ServerNode <port> <PRIMARY|BACKUP>");
+            System.err.println("Usage: java ServerNode <port> <PRIMARY|BACKUP> [advertised-host]");
             System.exit(1);
         }
 
         int port = Integer.parseInt(args[0]);
         Role role = Role.valueOf(args[1].toUpperCase());
+        String host = args.length > 2 ? args[2] : ClusterConfig.HOST;
 
-        ServerNode node = new ServerNode(port, role);
+        ServerNode node = new ServerNode(host, port, role);
 
         System.out.println("Starting ServerNode at port " + port
                 + " with role " + role);
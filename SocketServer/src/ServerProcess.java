@@ -1,13 +1,20 @@
 import java.io.BufferedReader;
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Abstract base class for all server processes.
@@ -21,94 +28,554 @@ public abstract class ServerProcess {
     // --- MODIFIED FIELD ---
     // The port number this server instance is running on
     protected final int serverPort;
+
+    // The host other nodes and the Monitor use to reach this server
+    protected final String advertisedHost;
     
     // --- STATE REPLICATION ---
-    // Message counter: tracks total messages processed (replicated to backups)
+    // Message counter: tracks total messages processed (replicated to backups).
+    // It is also the sequence number of the last command applied to the state machine.
     protected volatile int messageCount = 0;
 
+    // --- REPLICATED STATE MACHINE ---
+    // Write commands are applied in sequence order on every node; see StateMachine
+    protected StateMachine stateMachine;
+    private CommandLog commandLog = new CommandLog(ClusterConfig.COMMAND_LOG_CAPACITY);
+    // Replies to recent REQ: requests, so a client's retry is not applied twice (replicated)
+    private RequestCache requestCache = new RequestCache(ClusterConfig.REQUEST_CACHE_CAPACITY);
+
+    // Outcome of applying one replicated update on a backup
+    private enum UpdateResult { APPLIED, ALREADY_APPLIED, GAP, CONFLICT }
+
+    // --- RESYNC ---
+    // GAP and CONFLICT recovery (catch-up, snapshot fetch) runs on this thread, never on the
+    // replication handler thread, so a slow primary cannot freeze the replication link.
+    // Requests made while a resync is waiting to run are merged into it.
+    private final ExecutorService resyncWorker = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "resync");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Object resyncLock = new Object();
+    private boolean resyncPending; // Guarded by resyncLock
+    private boolean resyncReplace; // Guarded by resyncLock: load the snapshot even if not ahead
+
+    // --- PRIMARY LEASE AND FENCING ---
+    // Epoch of the newest promotion this node knows of; stamped on every update and client reply
+    protected volatile long epoch = 0;
+    // System.nanoTime() after which a primary must stop accepting writes unless the lease is renewed,
+    // or NO_LEASE. nanoTime() has an arbitrary origin, so no real deadline can double as "none"
+    private static final long NO_LEASE = Long.MIN_VALUE;
+    private volatile long leaseDeadlineNanos = NO_LEASE;
+    // The Monitor currently running failover; the primary renews its lease there
+    private volatile int leaderMonitorId = 0;
+
+    // --- STATE SNAPSHOTS ---
+    // The primary periodically writes its state here; rejoining backups fetch it in bulk
+    protected final SnapshotStore snapshots;
+    private volatile long lastSnapshotSeq = -1;
+
     private ServerSocket serverSocket;
     private Thread serverListenThread;
     private Thread heartbeatThread;
-    private final Set<Socket> activeClients = Collections.synchronizedSet(new HashSet<>());
+    private Thread snapshotThread;
+    // --- CONNECTION REGISTRY ---
+    // Lock-free registry of open connections with per-connection stats, swept by the reaper thread
+    private final Map<Socket, ConnectionStats> activeClients = new ConcurrentHashMap<>();
+    private Thread reaperThread;
+    // Sends the reaper's keepalive PINGs; a write stuck on a peer is released when the reaper closes it
+    private final ExecutorService keepaliveSender = Executors.newFixedThreadPool(2, task -> {
+        Thread thread = new Thread(task, "keepalive-sender");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // --- ADMISSION CONTROL ---
+    // Connections over MAX_CONNECTIONS are still accepted up to this reserve, but may only carry
+    // internal traffic (PROMOTE, replication, snapshots) so failover keeps working under overload
+    private static final int INTERNAL_CONNECTION_RESERVE = 16;
+    // Longest a write waits for its update to reach the backups before it is acknowledged anyway
+    private static final int REPLICATION_WAIT_MS = 2000;
+    // A long pipeline still gets its replies in chunks rather than all at the end
+    private static final int MAX_UNFLUSHED_REQUESTS = 64;
+    // Keyed by client ID (from REQ:[client id]-[n]:...), or by connection for lines without one.
+    // Entries are removed when a client has nothing in flight, so the map stays bounded under churn
+    private final Map<String, Integer> inflightPerClient = new ConcurrentHashMap<>();
+    private Replicator replicator;
+
+    // --- WARM RESTART ---
+    // Set once this instance has handed its socket and state to a replacement
+    private volatile ServerProcess successor;
 
     // --- MODIFIED CONSTRUCTOR ---
     // The constructor now accepts the server's port number
     protected ServerProcess(int port) {
+        this(ClusterConfig.HOST, port);
+    }
+
+    protected ServerProcess(String host, int port) {
+        this(host, port, new KeyValueStore());
+    }
+
+    protected ServerProcess(String host, int port, StateMachine stateMachine) {
+        this.advertisedHost = host;
         this.serverPort = port;
+        this.stateMachine = stateMachine;
+        this.snapshots = new SnapshotStore(port);
+        this.replicator = new Replicator(port, ClusterConfig.REPLICATION_QUEUE_CAPACITY,
+                () -> current().isPrimary, () -> current().epoch);
     }
 
     /**
      * Starts the server, accepts multiple clients, and handles each in a separate thread.
      */
     public void process() { // Removed 'port' argument as it's now in the constructor
+        // A cold start holds no state: a snapshot left by an earlier run must not be served as ours
+        try {
+            snapshots.discard();
+        } catch (IOException e) {
+            System.err.println("[" + serverPort + "] Could not remove old snapshot: " + e.getMessage());
+        }
+        startListener();
+
+        // Replication runs on its own thread, fed by a bounded queue
+        this.replicator.start();
+
+        // Nodes outside the seed configuration (or on another host) must register before heartbeating
+        if (!ClusterConfig.isMember(serverPort) || !ClusterConfig.hostOf(serverPort).equals(advertisedHost)) {
+            join();
+        }
+
+        startBackgroundThreads();
+
+        // A (re)joining backup loads the primary's latest snapshot instead of starting empty
+        if (!isPrimary) {
+            Thread syncThread = new Thread(() -> syncFromPrimary(false), "snapshot-sync");
+            syncThread.setDaemon(true);
+            syncThread.start();
+        }
+    }
+
+    private void startListener() {
         this.serverListenThread = new Thread(() -> runServer(this.serverPort)); // Use field
         this.serverListenThread.start();
+    }
+
+    private void startBackgroundThreads() {
+        // Keepalives and idle-connection reaping
+        this.reaperThread = new Thread(this::runConnectionReaper, "connection-reaper");
+        this.reaperThread.setDaemon(true);
+        this.reaperThread.start();
 
         // Start heartbeat sender as a daemon thread
         this.heartbeatThread = new Thread(this::sendHeartbeats, "heartbeat-sender");
         this.heartbeatThread.setDaemon(true);
         this.heartbeatThread.start();
+
+        // Periodic snapshots (only written while primary)
+        this.snapshotThread = new Thread(this::runSnapshots, "snapshot-writer");
+        this.snapshotThread.setDaemon(true);
+        this.snapshotThread.start();
+    }
+
+    /**
+     * Warm restart: hands the listening socket, the open connections, the replication links and
+     * the in-memory state to a replacement instance, which starts serving immediately.
+     * No socket is closed and no JOIN or snapshot sync is needed, so clients and the Monitor
+     * see no gap. This instance stops its own threads and must not be used afterwards.
+     */
+    public synchronized void handOffTo(ServerProcess replacement) {
+        if (replacement.serverPort != serverPort) {
+            throw new IllegalArgumentException("Replacement must use port " + serverPort);
+        }
+        if (!running || successor != null) {
+            throw new IllegalStateException("Server on port " + serverPort + " is not running");
+        }
+
+        synchronized (replacement) {
+            replacement.isPrimary = isPrimary;
+            replacement.messageCount = messageCount;
+            replacement.epoch = epoch;
+            replacement.leaseDeadlineNanos = leaseDeadlineNanos;
+            replacement.leaderMonitorId = leaderMonitorId;
+            replacement.lastSnapshotSeq = lastSnapshotSeq;
+            replacement.serverSocket = serverSocket;
+            replacement.replicator = replicator;
+            replacement.stateMachine = stateMachine;
+            replacement.commandLog = commandLog;
+            replacement.requestCache = requestCache;
+            replacement.activeClients.putAll(activeClients);
+        }
+        // From here on, handler threads route every line to the replacement
+        successor = replacement;
+        running = false;
+
+        // The listen thread is left alone: interrupting a blocked accept() closes the channel.
+        // It hands its next accepted connection to the replacement and exits.
+        if (heartbeatThread != null) heartbeatThread.interrupt();
+        if (snapshotThread != null) snapshotThread.interrupt();
+        if (reaperThread != null) reaperThread.interrupt();
+        resyncWorker.shutdownNow();
+        keepaliveSender.shutdownNow(); // The replacement's reaper pings the connections from now on
+
+        replacement.startListener();
+        replacement.startBackgroundThreads();
+        System.out.println("Server on port " + serverPort + " handed off (warm restart, " + activeClients.size()
+                + " connections, message count " + messageCount + ", epoch " + epoch + ")");
+    }
+
+    // Follows warm-restart handoffs to the instance that currently owns this port
+    private ServerProcess current() {
+        ServerProcess process = this;
+        while (process.successor != null) {
+            process = process.successor;
+        }
+        return process;
     }
 
     // The main server loop: accepts clients and starts a handler thread for each
     private void runServer(int port) {
         try {
-            serverSocket = new ServerSocket(port);
-            System.out.println("Server started on port: " + port);
+            if (serverSocket == null) { // Already open if adopted from a predecessor in a warm restart
+                // Opened through a channel so accepted sockets support zero-copy snapshot transfers
+                ServerSocketChannel channel = ServerSocketChannel.open();
+                SocketTuning.tune(channel.socket());
+                channel.bind(new InetSocketAddress(port));
+                serverSocket = channel.socket();
+                System.out.println("Server started on port: " + port);
+            }
             // ... (rest of runServer logic remains the same) ...
             while (running) {
                 var client = serverSocket.accept();
-                activeClients.add(client);
-                Thread clientHandler = new Thread(() -> handleClient(client));
-                clientHandler.setDaemon(true);
-                clientHandler.start();
-
+                // A connection accepted just before a warm restart belongs to the successor
+                current().admit(client);
             }
         } catch (IOException e) {
             if (running) e.printStackTrace();
         }
     }
 
+    // Registers an accepted connection and starts its handler thread
+    private void admit(Socket client) {
+        // Admission control: past the hard cap, answer BUSY without spending a thread
+        int open = activeClients.size();
+        if (open >= ClusterConfig.MAX_CONNECTIONS + INTERNAL_CONNECTION_RESERVE) {
+            rejectBusy(client);
+            return;
+        }
+        boolean overLimit = open >= ClusterConfig.MAX_CONNECTIONS;
+
+        ConnectionStats stats = new ConnectionStats(client);
+        activeClients.put(client, stats);
+        Thread clientHandler = new Thread(() -> handleClient(client, stats, overLimit));
+        clientHandler.setDaemon(true);
+        clientHandler.start();
+    }
+
     // Handles communication with a single client
-    private void handleClient(Socket client) {
+    private void handleClient(Socket client, ConnectionStats stats, boolean overLimit) {
+        // Replies are buffered and flushed once no further request is waiting, so a pipelining
+        // client gets many replies per write
         try (var clientInput = new BufferedReader(new InputStreamReader(client.getInputStream()));
-             var clientOutput = new PrintWriter(client.getOutputStream(), true)) {
+             var clientOutput = new PrintWriter(client.getOutputStream(), false)) {
+            // Backstop for half-open connections; the reaper normally closes them first
+            client.setSoTimeout(ClusterConfig.IDLE_TIMEOUT_MS + ClusterConfig.KEEPALIVE_INTERVAL_MS);
+            client.setKeepAlive(true);
+            SocketTuning.tune(client);
+            stats.attach(clientOutput);
+
             String line;
+            int unflushed = 0;
             while ((line = clientInput.readLine()) != null) {
-                if ("PROMOTE".equals(line)) {
-                    isPrimary = true;
-                    // Log the promotion success
-                    System.out.println("--- RECEIVED PROMOTE COMMAND ---");
-                    onPromotedToPrimary(); // Hook for subclasses
-                    clientOutput.println("PROMOTED");
-                } else if (line.startsWith("STATE_UPDATE:")) {
-                    // Backup receiving state update from primary
-                    try {
-                        String[] parts = line.split(":");
-                        if (parts.length == 2) {
-                            messageCount = Integer.parseInt(parts[1]);
-                            System.out.println("[Backup:" + serverPort + "] State synced. Message count: " + messageCount);
-                        }
-                    } catch (NumberFormatException e) {
-                        System.err.println("Invalid state update format");
+                stats.recordActivity();
+
+                // After a warm restart, lines on existing connections are served by the successor
+                FlightEvents.ClientRequest event = new FlightEvents.ClientRequest();
+                event.begin();
+                boolean keepOpen;
+                stats.lockWrites(); // Keepalive PINGs skip the connection while we write to it
+                try {
+                    keepOpen = current().handleLine(line, client, clientOutput, overLimit);
+                    if (keepOpen && (!clientInput.ready() || ++unflushed >= MAX_UNFLUSHED_REQUESTS)) {
+                        clientOutput.flush();
+                        unflushed = 0;
                     }
-                } else if (isPrimary) {
-                    // Primary processing client message
-                    messageCount++; // Increment state
-                    System.out.println("[Primary:" + serverPort + "] Client says: " + line + " (Total messages: " + messageCount + ")");
-                    
-                    // Replicate state to all backup servers
-                    replicateStateToBackups();
-                    
-                    clientOutput.println("Message Received");
-                } else {
-                    clientOutput.println("NOT PRIMARY (Currently Port: " + serverPort + ")");
+                } finally {
+                    stats.unlockWrites();
+                }
+                event.end();
+                if (event.shouldCommit() && isClientRequest(line)) {
+                    String command = RequestCache.command(line);
+                    int space = command.indexOf(' ');
+                    event.port = serverPort;
+                    event.primary = current().isPrimary;
+                    event.clientHost = client.getInetAddress().getHostAddress();
+                    event.command = space > 0 ? command.substring(0, space) : command;
+                    event.requestId = RequestCache.requestId(line);
+                    event.commit();
+                }
+                if (!keepOpen) {
+                    break;
                 }
             }
+        } catch (SocketTimeoutException e) {
+            System.out.println("Closing idle connection " + stats);
         } catch (IOException e) {
             System.out.println("Client disconnected or error occurred.");
         } finally {
-            activeClients.remove(client);
+            current().activeClients.remove(client);
+            try { client.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    /**
+     * Processes one line received on a connection.
+     * @return false if the connection should be closed
+     */
+    private boolean handleLine(String line, Socket client, PrintWriter clientOutput, boolean overLimit) throws IOException {
+        // Application-level keepalive: PING is answered, PONG only proves liveness
+        if ("PING".equals(line)) {
+            clientOutput.println("PONG");
+            return true;
+        } else if ("PONG".equals(line)) {
+            return true;
+        }
+
+        if (overLimit && !isInternalCommand(line)) {
+            // Connection was admitted from the internal reserve: turn client traffic away
+            clientOutput.println(busyReply());
+            return false;
+        }
+
+        if ("PROMOTE".equals(line) || line.startsWith("PROMOTE|")) {
+            // PROMOTE|[epoch]|[lease ms] carries the new epoch and the initial lease. Anything else
+            // is refused and leaves the role alone: a primary without a fresh epoch can't be fenced
+            String[] parts = line.split("\\|");
+            long newEpoch;
+            long leaseMs;
+            try {
+                if (parts.length != 3) throw new NumberFormatException("expected PROMOTE|<epoch>|<lease ms>");
+                newEpoch = Long.parseLong(parts[1].trim());
+                leaseMs = Long.parseLong(parts[2].trim());
+                if (leaseMs <= 0) throw new NumberFormatException("lease must be positive");
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid promote format: " + line);
+                clientOutput.println("ERROR: Invalid promote format");
+                return true;
+            }
+            if (!acceptPromotion(newEpoch, leaseMs)) {
+                clientOutput.println("STALE_EPOCH " + epoch);
+                return true;
+            }
+            // Our state came from the previous primary, which already sent it to the backups
+            replicator.markReplicated(messageCount);
+            // Log the promotion success
+            System.out.println("--- RECEIVED PROMOTE COMMAND (epoch " + epoch + ") ---");
+            onPromotedToPrimary(); // Hook for subclasses
+            clientOutput.println("PROMOTED");
+        } else if (line.startsWith("CATCHUP:")) {
+            // A backup missed updates: resend them from the command log, or send it to the snapshot
+            List<String> missed;
+            try {
+                missed = commandLog.since(Long.parseLong(line.substring(8).trim()));
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid catch-up format: " + line);
+                clientOutput.println("ERROR: Invalid catch-up format");
+                return true;
+            }
+            if (missed == null) {
+                clientOutput.println("CATCHUP_SNAPSHOT");
+            } else {
+                for (String update : missed) {
+                    clientOutput.println(update);
+                }
+                clientOutput.println("CATCHUP_END");
+            }
+        } else if ("SNAPSHOT_REQUEST".equals(line)) {
+            // A rejoining backup wants our latest snapshot in bulk
+            snapshots.serve(clientOutput, client.getChannel());
+        } else if (line.startsWith("ROUTE|")) {
+            // Chain/tree replication: which nodes this backup forwards updates to
+            try {
+                Replicator.Route route = Replicator.Route.parse(line);
+                if (route.epoch() >= epoch) {
+                    replicator.setRoute(route);
+                }
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid route format");
+            }
+        } else if (line.startsWith("STATE_UPDATE:")) {
+            // Backup receiving state update from primary
+            try {
+                // STATE_UPDATE:[epoch]:[seq]:[command] (older primaries send STATE_UPDATE:[epoch]:[count])
+                String[] parts = line.split(":", 4);
+                if (parts.length >= 3) {
+                    long updateEpoch = Long.parseLong(parts[1]);
+                    int seq = Integer.parseInt(parts[2]);
+
+                    // Fencing: updates from a primary of an older epoch are rejected
+                    if (updateEpoch < epoch) {
+                        System.err.println("[" + serverPort + "] Rejected update from stale epoch "
+                                + updateEpoch + " (current epoch " + epoch + ")");
+                        return true;
+                    }
+                    observeEpoch(updateEpoch);
+
+                    UpdateResult result;
+                    synchronized (this) {
+                        if (successor != null) {
+                            // Handed off while this line was in flight: let the successor apply it
+                            return current().handleLine(line, client, clientOutput, overLimit);
+                        }
+                        if (parts.length == 3) {
+                            // Count-only update: nothing to apply, just follow the count
+                            if (seq > messageCount) {
+                                messageCount = seq;
+                            }
+                            result = UpdateResult.APPLIED;
+                        } else {
+                            result = applyUpdate(seq, parts[3], line);
+                        }
+                    }
+
+                    if (result == UpdateResult.GAP) {
+                        // Updates were lost on the way: fetch them (this one included) in the background
+                        requestResync(false);
+                    } else if (result == UpdateResult.CONFLICT) {
+                        // A new primary reused sequence numbers we already applied: take its state
+                        System.err.println("[" + serverPort + "] Update " + seq + " conflicts with applied history; resyncing");
+                        requestResync(true);
+                    }
+                    if (result == UpdateResult.APPLIED) {
+                        System.out.println("[Backup:" + serverPort + "] State synced. Message count: " + messageCount);
+                    }
+                }
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid state update format");
+            }
+        } else if (isPrimary && !hasValidLease()) {
+            // Without a valid lease another node may already be primary: refuse writes
+            clientOutput.println("NOT PRIMARY (Lease expired on Port " + serverPort + ", epoch " + epoch + ")");
+        } else if (isPrimary && stateMachine.isReadOnly(RequestCache.command(line))) {
+            // Reads are answered locally while the lease is valid; nothing to replicate
+            clientOutput.println(stateMachine.query(RequestCache.command(line)));
+        } else if (isPrimary) {
+            // Admission control: cap the requests one client can have in flight. Clients sharing
+            // a host (or a NAT) are told apart by their request IDs, or else by connection
+            String requestId = RequestCache.requestId(line);
+            String clientKey = requestId != null
+                    ? RequestCache.clientId(requestId) : String.valueOf(client.getRemoteSocketAddress());
+            if (!tryAcquireInflight(clientKey)) {
+                clientOutput.println(busyReply());
+                return true;
+            }
+            try {
+                // Primary processing client message
+                long seq;
+                long appliedEpoch;
+                String reply = null;
+                RequestCache.Entry done = null;
+                synchronized (this) {
+                    appliedEpoch = epoch;
+                    if (successor != null) {
+                        // Handed off while this line was in flight: let the successor apply it
+                        return current().handleLine(line, client, clientOutput, overLimit);
+                    }
+                    if (requestId != null) {
+                        done = requestCache.get(requestId);
+                    }
+                    if (done != null) {
+                        // A retry of a request already applied (maybe by the previous primary)
+                        seq = done.seq;
+                        reply = done.reply;
+                    } else {
+                        // Queue the update under the same lock so queue order matches count order
+                        seq = messageCount + 1;
+                        String update = "STATE_UPDATE:" + epoch + ":" + seq + ":" + line;
+                        if (replicator.offer(seq, update)) {
+                            reply = applyCommand(seq, line);
+                            messageCount++; // Increment state (guarded so snapshots see a consistent count)
+                            commandLog.append(seq, update);
+                        } else {
+                            seq = -1;
+                        }
+                    }
+                }
+                if (seq < 0) {
+                    // Replication queue is full: shed load instead of buffering without limit
+                    clientOutput.println(busyReply());
+                    return true;
+                }
+                if (done != null) {
+                    System.out.println("[Primary:" + serverPort + "] Duplicate request " + requestId
+                            + " answered from cache (seq " + seq + ")");
+                } else {
+                    System.out.println("[Primary:" + serverPort + "] Client says: " + line + " (Total messages: " + seq + ")");
+                }
+
+                // Acknowledge only once the update has left this node for a backup
+                boolean replicated = replicator.awaitReplicated(seq, REPLICATION_WAIT_MS);
+                if (!isPrimary || epoch != appliedEpoch) {
+                    // Fenced or demoted meanwhile: the update may never reach the new primary.
+                    // The client retries there under the same request ID
+                    clientOutput.println("NOT PRIMARY (Stepped down on Port " + serverPort + ", epoch " + epoch + ")");
+                } else if (!replicated) {
+                    // No backup took it in time; a retry with the same request ID is answered from the cache
+                    clientOutput.println(busyReply());
+                } else {
+                    // Plain messages (not state machine commands) are only counted
+                    clientOutput.println(reply != null ? reply : "Message Received (epoch " + appliedEpoch + ")");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                releaseInflight(clientKey);
+            }
+        } else {
+            clientOutput.println("NOT PRIMARY (Currently Port: " + serverPort + ")");
+        }
+        return true;
+    }
+
+    /**
+     * Every second: PING connections idle longer than the keepalive interval, and close those
+     * still silent after the idle timeout (their handler thread then exits and is reclaimed).
+     */
+    private void runConnectionReaper() {
+        while (running) {
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            long now = System.currentTimeMillis();
+            for (Map.Entry<Socket, ConnectionStats> entry : activeClients.entrySet()) {
+                ConnectionStats stats = entry.getValue();
+                long idle = stats.idleMillis(now);
+
+                if (idle > ClusterConfig.IDLE_TIMEOUT_MS) {
+                    System.out.println("Reaping idle connection " + stats);
+                    activeClients.remove(entry.getKey());
+                    try { entry.getKey().close(); } catch (IOException ignored) {}
+                } else if (idle > ClusterConfig.KEEPALIVE_INTERVAL_MS && !stats.isPingOutstanding()) {
+                    // The reaper itself never writes, so a peer that stopped reading cannot block it
+                    stats.pingScheduled();
+                    Socket socket = entry.getKey();
+                    try {
+                        keepaliveSender.execute(() -> {
+                            if (!stats.sendPing()) {
+                                System.out.println("Closing unresponsive connection " + stats);
+                                activeClients.remove(socket);
+                                try { socket.close(); } catch (IOException ignored) {}
+                            }
+                        });
+                    } catch (RejectedExecutionException e) {
+                        return; // Stopped or handed off
+                    }
+                }
+            }
         }
     }
 
@@ -117,6 +584,10 @@ public abstract class ServerProcess {
         while (running) {
             try {
                 sendHeartbeat();
+                // The primary needs an up-to-date member list to know where to replicate
+                if (isPrimary) {
+                    refreshMembership();
+                }
                 Thread.sleep(2000); // Wait 2 seconds
             } catch (InterruptedException e) {
                 break;
@@ -127,13 +598,24 @@ public abstract class ServerProcess {
     // --- MODIFIED METHOD ---
     // Send one heartbeat message using the server's port number
     private void sendHeartbeat() {
-        try (Socket socket = new Socket("localhost", 9000); // Connect to monitor heartbeat port
-             PrintWriter out = new PrintWriter(socket.getOutputStream(), true)) {
+        try {
+            // A primary heartbeats to the leader Monitor (which renews its lease); backups to their shard owner
+            int target = isPrimary ? leaderMonitorId : ClusterConfig.monitorFor(serverPort);
+
+            for (int attempt = 0; attempt < 2; attempt++) {
+                long timeStamp = System.currentTimeMillis();
+                long sentAt = System.nanoTime();
 
-            long timeStamp = System.currentTimeMillis();
+                // Send the required format: [Port #] | [timestamp] | [epoch] | [role], followed by
+                // [message count] | [load] | [open connections] so the Monitor can pick the best backup
+                String reply = sendToMonitor(false, this.serverPort + "|" + timeStamp + "|" + epoch + "|"
+                        + (isPrimary ? "PRIMARY" : "BACKUP") + "|" + messageCount + "|" + currentLoad()
+                        + "|" + activeClients.size(), true, target);
 
-            // Send the required format: [Port #] | [timestamp]
-            out.println(this.serverPort + "|" + timeStamp );
+                // Retry once at the leader if a primary's heartbeat landed elsewhere
+                if (handleHeartbeatReply(reply, sentAt) || !isPrimary || leaderMonitorId == target) break;
+                target = leaderMonitorId;
+            }
 
         } catch (IOException e) {
             // Suppress continuous failure logs, only show if the server itself is running.
@@ -144,6 +626,373 @@ public abstract class ServerProcess {
     }
 
 
+    // Requests in flight plus updates waiting to be replicated
+    private int currentLoad() {
+        int inflight = 0;
+        for (int count : inflightPerClient.values()) {
+            inflight += count;
+        }
+        return inflight + replicator.queueDepth();
+    }
+
+    // --- PRIMARY LEASE AND FENCING ---
+
+    /**
+     * Applies the Monitor's reply to a heartbeat: LEASE|[epoch]|[ms] renews the lease,
+     * OK|[epoch]|[leader id] tells us the current epoch and which Monitor leads.
+     * UNKNOWN means the Monitor has lost our membership (it restarted after we joined), so we JOIN again.
+     * @return true if the lease was renewed
+     */
+    private boolean handleHeartbeatReply(String reply, long sentAtNanos) {
+        if (reply == null) return false;
+        if ("UNKNOWN".equals(reply)) {
+            System.out.println("[" + serverPort + "] Monitor does not know this node; joining again");
+            join();
+            return false;
+        }
+        String[] parts = reply.split("\\|");
+        if (parts.length != 3) return false;
+
+        try {
+            long replyEpoch = Long.parseLong(parts[1]);
+            if ("LEASE".equals(parts[0])) {
+                synchronized (this) {
+                    if (isPrimary && replyEpoch == epoch) {
+                        // Measured from when we sent, so our deadline never outlives the Monitor's
+                        leaseDeadlineNanos = sentAtNanos + Long.parseLong(parts[2]) * 1_000_000L;
+                        return true;
+                    }
+                }
+            } else if ("OK".equals(parts[0])) {
+                leaderMonitorId = Integer.parseInt(parts[2]);
+                observeEpoch(replyEpoch);
+            }
+        } catch (NumberFormatException e) {
+            System.err.println("[" + serverPort + "] Malformed heartbeat reply: " + reply);
+        }
+        return false;
+    }
+
+    /**
+     * Takes the primary role for a new epoch. The epoch must be newer than any we have seen; a
+     * repeated PROMOTE for the epoch we already lead in is accepted again (it only renews the lease).
+     */
+    private synchronized boolean acceptPromotion(long newEpoch, long leaseMs) {
+        if (newEpoch < epoch || (newEpoch == epoch && !isPrimary)) {
+            System.err.println("[" + serverPort + "] Ignored PROMOTE from stale epoch " + newEpoch);
+            return false;
+        }
+        epoch = newEpoch;
+        isPrimary = true;
+        leaseDeadlineNanos = System.nanoTime() + leaseMs * 1_000_000L;
+        return true;
+    }
+
+    /**
+     * Records a newer epoch. A primary that learns of one has been replaced and steps down.
+     */
+    private synchronized void observeEpoch(long seenEpoch) {
+        if (seenEpoch <= epoch) return;
+        epoch = seenEpoch;
+        if (isPrimary) {
+            isPrimary = false;
+            leaseDeadlineNanos = NO_LEASE;
+            System.out.println("[" + serverPort + "] Fenced off by epoch " + seenEpoch + "; stepping down to BACKUP");
+            onDemotedToBackup();
+        }
+    }
+
+    /**
+     * True while this node is primary and its lease has not run out. Checked locally on every
+     * write, so a valid lease costs no coordination round-trip.
+     */
+    protected boolean hasValidLease() {
+        long deadline = leaseDeadlineNanos;
+        return isPrimary && deadline != NO_LEASE && System.nanoTime() - deadline < 0;
+    }
+
+    /**
+     * Registers this node with the Monitor (JOIN|[host]|[port]) and adopts the returned membership.
+     */
+    public void join() {
+        sendMembershipRequest("JOIN|" + advertisedHost + "|" + serverPort);
+    }
+
+    /**
+     * Removes this node from the cluster (LEAVE|[port]) and stops it.
+     */
+    public void leave() {
+        sendMembershipRequest("LEAVE|" + serverPort);
+        stop();
+    }
+
+    private void sendMembershipRequest(String request) {
+        try {
+            String reply = sendToMonitor(false, request, true);
+
+            if (reply != null && (reply.startsWith("JOINED|") || reply.startsWith("LEFT|"))) {
+                ClusterConfig.replaceMembers(reply.substring(reply.indexOf('|') + 1));
+                System.out.println("[" + serverPort + "] Membership updated: " + ClusterConfig.encodeMembers());
+            } else {
+                System.err.println("[" + serverPort + "] Monitor rejected membership request: " + reply);
+            }
+        } catch (IOException e) {
+            System.err.println("[" + serverPort + "] Failed to reach Monitor for membership request: " + e.getMessage());
+        }
+    }
+
+    // Pulls the current member list from the Monitor's client API
+    private void refreshMembership() {
+        try {
+            ClusterConfig.replaceMembers(sendToMonitor(true, "GET_MEMBERS", true));
+        } catch (IOException e) {
+            // Keep the last known membership if no Monitor is reachable
+        }
+    }
+
+    /**
+     * Sends one request line to a Monitor, starting with the Monitor that owns this node's
+     * shard and falling back to the others in order.
+     * @param apiPort true for the client API port, false for the heartbeat port
+     * @return the reply line, or null if awaitReply is false
+     * @throws IOException if no Monitor could be reached
+     */
+    private String sendToMonitor(boolean apiPort, String request, boolean awaitReply) throws IOException {
+        return sendToMonitor(apiPort, request, awaitReply, ClusterConfig.monitorFor(serverPort));
+    }
+
+    private String sendToMonitor(boolean apiPort, String request, boolean awaitReply, int firstMonitor) throws IOException {
+        IOException lastFailure = null;
+
+        for (int i = 0; i < ClusterConfig.MONITOR_COUNT; i++) {
+            int id = (firstMonitor + i) % ClusterConfig.MONITOR_COUNT;
+            int port = apiPort ? ClusterConfig.monitorApiPort(id) : ClusterConfig.monitorHeartbeatPort(id);
+
+            String from = FaultInjector.node(serverPort);
+            String to = FaultInjector.monitor(id);
+            try (Socket socket = apiPort
+                    ? FaultInjector.connect(from, to, ClusterConfig.monitorHost(id), port, 1000)
+                    : FaultInjector.connectHeartbeat(from, to, ClusterConfig.monitorHost(id), port, 1000)) {
+                socket.setSoTimeout(2000);
+                PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                out.println(request);
+
+                if (!awaitReply) return null;
+                return new BufferedReader(new InputStreamReader(socket.getInputStream())).readLine();
+            } catch (IOException e) {
+                lastFailure = e;
+            }
+        }
+        throw lastFailure;
+    }
+
+    // --- STATE SNAPSHOTS ---
+
+    /**
+     * Captures the replicated state for a snapshot. Called with the lock held; the returned writer
+     * runs after it is released, so the disk write never stalls clients or replication.
+     * Subclasses holding more state extend this.
+     */
+    protected SnapshotStore.StateWriter captureState() throws IOException {
+        int count = messageCount;
+        SnapshotStore.StateWriter machine = stateMachine.capture();
+        SnapshotStore.StateWriter requests = requestCache.capture();
+        return out -> {
+            out.writeInt(count);
+            machine.write(out);
+            requests.write(out);
+        };
+    }
+
+    /**
+     * Restores the replicated state from a snapshot written by captureState().
+     */
+    protected void readState(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        stateMachine.readFrom(in);
+        requestCache.readFrom(in);
+        messageCount = count; // Only once the state machine has loaded
+    }
+
+    // Runs forever, writing a snapshot whenever the primary's state has moved on
+    private void runSnapshots() {
+        while (running) {
+            try {
+                Thread.sleep(ClusterConfig.SNAPSHOT_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (!isPrimary || messageCount == lastSnapshotSeq) continue;
+
+            try {
+                long seq;
+                SnapshotStore.StateWriter state;
+                synchronized (this) {
+                    seq = messageCount;
+                    state = captureState();
+                }
+                snapshots.write(seq, state); // Disk I/O outside the lock
+                lastSnapshotSeq = seq;
+            } catch (IOException e) {
+                System.err.println("[" + serverPort + "] Failed to write snapshot: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Asks the Monitor who the primary is, fetches its latest snapshot and loads it.
+     * Updates older than the snapshot are ignored afterwards; newer ones apply as usual.
+     * @param replace load the snapshot even if it is not ahead of our state (our history diverged)
+     */
+    private void syncFromPrimary(boolean replace) {
+        try {
+            String primary = sendToMonitor(true, "GET_PRIMARY_ADDR", true);
+            if (primary == null || !primary.contains(":")) return;
+
+            int sep = primary.lastIndexOf(':');
+            int primaryPort = Integer.parseInt(primary.substring(sep + 1));
+            if (primaryPort == serverPort) return;
+
+            long started = System.nanoTime();
+            long seq = snapshots.fetch(primary.substring(0, sep), primaryPort);
+            if (seq < 0) {
+                System.out.println("[" + serverPort + "] Primary has no snapshot yet; waiting for state updates");
+                return;
+            }
+
+            synchronized (this) {
+                if (replace || seq > messageCount) {
+                    try (DataInputStream in = snapshots.openState()) {
+                        readState(in);
+                    }
+                    if (replace) {
+                        commandLog.clear(); // Our log holds the diverged history
+                    }
+                }
+            }
+            System.out.println("[" + serverPort + "] Loaded snapshot seq " + seq + " from port " + primaryPort
+                    + " in " + (System.nanoTime() - started) / 1_000_000 + "ms. Message count: " + messageCount);
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("[" + serverPort + "] Snapshot sync failed: " + e.getMessage());
+        }
+    }
+
+    // --- REPLICATED STATE MACHINE ---
+
+    /**
+     * Applies one replicated update if it is the next in sequence. Caller holds the lock.
+     */
+    private UpdateResult applyUpdate(int seq, String command, String update) {
+        if (seq <= messageCount) {
+            // Seen before (resent, or covered by a snapshot) - unless a new primary rewrote history
+            String applied = commandLog.get(seq);
+            return applied != null && !applied.equals(update) ? UpdateResult.CONFLICT : UpdateResult.ALREADY_APPLIED;
+        }
+        if (seq != messageCount + 1) {
+            return UpdateResult.GAP;
+        }
+        applyCommand(seq, command);
+        messageCount = seq;
+        commandLog.append(seq, update);
+        if (!isPrimary) {
+            replicator.forward(seq, update); // Chain/tree replication: pass it down
+        }
+        return UpdateResult.APPLIED;
+    }
+
+    /**
+     * Applies a client line (with or without a request ID) to the state machine and records the
+     * reply of an identified request. Caller holds the lock.
+     * @return the state machine's reply, or null for a plain message
+     */
+    private String applyCommand(long seq, String line) {
+        String reply = stateMachine.apply(RequestCache.command(line));
+        String requestId = RequestCache.requestId(line);
+        if (requestId != null) {
+            requestCache.put(requestId, seq, reply);
+        }
+        return reply;
+    }
+
+    /**
+     * Schedules a catch-up from the primary (after a snapshot reload if replace is set) on the
+     * resync thread. Updates arriving meanwhile are applied if they are next in sequence; the
+     * others are covered by the catch-up, which reads the primary's log as it is when it runs.
+     */
+    private void requestResync(boolean replace) {
+        synchronized (resyncLock) {
+            resyncReplace |= replace;
+            if (resyncPending) return;
+            resyncPending = true;
+        }
+        try {
+            resyncWorker.execute(() -> {
+                boolean reload;
+                synchronized (resyncLock) {
+                    reload = resyncReplace;
+                    resyncReplace = false;
+                    resyncPending = false;
+                }
+                if (reload) {
+                    syncFromPrimary(true);
+                }
+                catchUpFromPrimary();
+            });
+        } catch (RejectedExecutionException e) {
+            // Stopped or handed off
+        }
+    }
+
+    /**
+     * Fetches the updates after our message count from the primary's command log and applies
+     * them in order. If the primary no longer has them all, loads its snapshot and tries again.
+     */
+    private void catchUpFromPrimary() {
+        for (int round = 0; round < 2; round++) {
+            try {
+                String primary = sendToMonitor(true, "GET_PRIMARY_ADDR", true);
+                if (primary == null || !primary.contains(":")) return;
+
+                int sep = primary.lastIndexOf(':');
+                int primaryPort = Integer.parseInt(primary.substring(sep + 1));
+                if (primaryPort == serverPort) return;
+
+                try (Socket socket = FaultInjector.connect(FaultInjector.node(serverPort), FaultInjector.node(primaryPort),
+                        primary.substring(0, sep), primaryPort, 1000);
+                     PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                     BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+                    socket.setSoTimeout(5000);
+                    int from = messageCount;
+                    out.println("CATCHUP:" + from);
+
+                    String reply;
+                    while ((reply = in.readLine()) != null && reply.startsWith("STATE_UPDATE:")) {
+                        String[] parts = reply.split(":", 4);
+                        if (parts.length == 4) {
+                            synchronized (this) {
+                                applyUpdate(Integer.parseInt(parts[2]), parts[3], reply);
+                            }
+                        }
+                    }
+                    if ("CATCHUP_END".equals(reply)) {
+                        System.out.println("[" + serverPort + "] Caught up from seq " + from + " to " + messageCount
+                                + " from port " + primaryPort);
+                        return;
+                    }
+                    if (!"CATCHUP_SNAPSHOT".equals(reply)) {
+                        System.err.println("[" + serverPort + "] Catch-up interrupted: " + reply);
+                        return;
+                    }
+                }
+            } catch (IOException | NumberFormatException e) {
+                System.err.println("[" + serverPort + "] Catch-up failed: " + e.getMessage());
+                return;
+            }
+            // Too far behind for the command log: load the snapshot, then fetch what came after it
+            syncFromPrimary(false);
+        }
+    }
+
     /**
      * Hook method for subclasses to override.
      * Called when this server is promoted to primary.
@@ -151,35 +1000,65 @@ public abstract class ServerProcess {
     protected abstract void onPromotedToPrimary();
 
     /**
-     * Replicates current state to all backup servers.
-     * Sends STATE_UPDATE message to all known backup ports.
+     * Hook method for subclasses to override.
+     * Called when this primary learns of a newer epoch and steps down.
      */
-    private void replicateStateToBackups() {
-        // Get all server ports from the ClusterConfig abstraction
-        int[] allPorts = Arrays.stream(ClusterConfig.NODES)
-                .mapToInt(node -> node.port)
-                .toArray();
+    protected abstract void onDemotedToBackup();
 
-        for (int port : allPorts) {
-            if (port != this.serverPort) { // Don't send to self
-                try (Socket backupSocket = new Socket(ClusterConfig.HOST, port);
-                     PrintWriter out = new PrintWriter(backupSocket.getOutputStream(), true)) {
+    // --- ADMISSION CONTROL ---
 
-                    out.println("STATE_UPDATE:" + messageCount);
+    private static String busyReply() {
+        return "BUSY|" + ClusterConfig.BUSY_RETRY_AFTER_MS;
+    }
 
-                } catch (IOException e) {
-                    System.err.println("Failed to replicate state to backup on port "
-                            + port + ": " + e.getMessage());
-                }
-            }
+    // Commands sent by the Monitor or other nodes, which must get through even under overload
+    private static boolean isInternalCommand(String line) {
+        return line.startsWith("PROMOTE") || line.startsWith("STATE_UPDATE:") || line.startsWith("ROUTE|")
+                || line.startsWith("CATCHUP:")
+                || "SNAPSHOT_REQUEST".equals(line);
+    }
+
+    // Lines from clients, as opposed to keepalives and node-to-node traffic
+    private static boolean isClientRequest(String line) {
+        return !"PING".equals(line) && !"PONG".equals(line) && !isInternalCommand(line);
+    }
+
+    private void rejectBusy(Socket client) {
+        try {
+            client.getOutputStream().write((busyReply() + "\n").getBytes(StandardCharsets.UTF_8));
+        } catch (IOException ignored) {
+        } finally {
+            try { client.close(); } catch (IOException ignored) {}
         }
     }
 
+    private boolean tryAcquireInflight(String clientKey) {
+        boolean[] admitted = {false};
+        inflightPerClient.compute(clientKey, (key, count) -> {
+            int current = count == null ? 0 : count;
+            if (current >= ClusterConfig.MAX_INFLIGHT_PER_CLIENT) {
+                return count;
+            }
+            admitted[0] = true;
+            return current + 1;
+        });
+        return admitted[0];
+    }
+
+    private void releaseInflight(String clientKey) {
+        inflightPerClient.computeIfPresent(clientKey, (key, count) -> count > 1 ? count - 1 : null);
+    }
+
 
     /**
      * Stops the server process gracefully.
      */
     public void stop() {
+        if (successor != null) {
+            // Warm-restarted: the sockets and threads now belong to the successor
+            current().stop();
+            return;
+        }
 
         System.out.println("Server on port " + this.serverPort + " shutting down");
         //close listener socket
@@ -197,6 +1076,18 @@ public abstract class ServerProcess {
             this.heartbeatThread.interrupt();
         }
 
+        if (this.snapshotThread != null) {
+            this.snapshotThread.interrupt();
+        }
+
+        if (this.reaperThread != null) {
+            this.reaperThread.interrupt();
+        }
+
+        replicator.stop();
+        resyncWorker.shutdownNow();
+        keepaliveSender.shutdownNow();
+
         //wait for threads to exit
         try{
             if(heartbeatThread != null) {
@@ -208,7 +1099,7 @@ public abstract class ServerProcess {
             Thread.currentThread().interrupt();
         }
         //close client connections
-        for(Socket client : activeClients) {
+        for(Socket client : activeClients.keySet()) {
             try {
                 client.close();
             } catch (IOException e) {}
@@ -0,0 +1,209 @@
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stores compact binary snapshots of a server's replicated state on disk and moves them
+ * between nodes in bulk with FileChannel.transferTo / transferFrom (no copies through the heap).
+ *
+ * File layout: [magic int][sequence long][state bytes written by the ServerProcess].
+ */
+public class SnapshotStore {
+
+    // "SRM2": the state body carries the state machine; count-only snapshots ("SRMS") are rejected
+    private static final int MAGIC = 0x53524D32;
+    private static final int HEADER_BYTES = Integer.BYTES + Long.BYTES;
+    private static final int CONNECT_TIMEOUT_MS = 1000;
+    // A fetch that makes no progress for this long is abandoned
+    private static final int STALL_TIMEOUT_MS = 5000;
+
+    // SO_TIMEOUT does not bound transferFrom() on a blocking channel, so a watchdog closes
+    // fetches that stall; the blocked transfer then fails with AsynchronousCloseException
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "snapshot-fetch-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Writes the state body of a snapshot (the header is handled by the store).
+     */
+    public interface StateWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private final Path file;
+
+    public SnapshotStore(int serverPort) {
+        this.file = Paths.get(ClusterConfig.SNAPSHOT_DIR, "srms-snapshot-" + serverPort + ".bin");
+    }
+
+    public boolean exists() {
+        return Files.exists(file);
+    }
+
+    /**
+     * Deletes the snapshot, if any.
+     */
+    public void discard() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    /**
+     * Writes a new snapshot. The file is written next to the old one and atomically moved
+     * into place, so readers and in-flight transfers always see a complete snapshot.
+     */
+    public void write(long sequence, StateWriter state) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeLong(sequence);
+            state.write(out);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Opens the snapshot body for reading, positioned after the header.
+     */
+    public DataInputStream openState() throws IOException {
+        DataInputStream in = new DataInputStream(Files.newInputStream(file));
+        if (in.readInt() != MAGIC) {
+            in.close();
+            throw new IOException("Not a snapshot file: " + file);
+        }
+        in.readLong();
+        return in;
+    }
+
+    /**
+     * Returns the sequence number stored in the snapshot header, or -1 if there is no snapshot.
+     */
+    public long sequence() {
+        if (!exists()) return -1;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return readSequence(channel);
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private static long readSequence(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+        }
+        header.flip();
+        if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC) {
+            throw new IOException("Corrupt snapshot header");
+        }
+        return header.getLong();
+    }
+
+    /**
+     * Serves the latest snapshot to a peer: a "SNAPSHOT:[seq]:[bytes]" line followed by the raw file.
+     * The open channel pins the file, so a concurrent write() cannot tear the transfer.
+     */
+    public void serve(PrintWriter header, SocketChannel target) throws IOException {
+        if (!exists()) {
+            header.println("NO_SNAPSHOT");
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            header.println("SNAPSHOT:" + readSequence(channel) + ":" + size);
+            header.flush();
+
+            long sent = 0;
+            while (sent < size) {
+                sent += channel.transferTo(sent, size - sent, target);
+            }
+        }
+    }
+
+    /**
+     * Fetches the latest snapshot from another node and installs it as this node's snapshot.
+     * Gives up if the connect takes longer than CONNECT_TIMEOUT_MS or the peer sends nothing
+     * for STALL_TIMEOUT_MS.
+     * @return the fetched sequence number, or -1 if the peer has no snapshot.
+     */
+    public long fetch(String host, int port) throws IOException {
+        AtomicLong lastProgress = new AtomicLong(System.currentTimeMillis());
+        AtomicLong received = new AtomicLong();
+        ScheduledFuture<?> watchdog = null;
+        SocketChannel channel = SocketChannel.open();
+        try {
+            SocketTuning.tune(channel.socket());
+            channel.socket().connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+            watchdog = WATCHDOG.scheduleWithFixedDelay(() -> {
+                if (System.currentTimeMillis() - lastProgress.get() > STALL_TIMEOUT_MS) {
+                    System.err.println("Snapshot fetch from port " + port + " stalled after "
+                            + received.get() + " bytes; closing");
+                    try { channel.close(); } catch (IOException ignored) {}
+                }
+            }, STALL_TIMEOUT_MS / 5, STALL_TIMEOUT_MS / 5, TimeUnit.MILLISECONDS);
+
+            OutputStream out = channel.socket().getOutputStream();
+            out.write("SNAPSHOT_REQUEST\n".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+
+            String header = readLine(channel.socket().getInputStream());
+            if (header == null || !header.startsWith("SNAPSHOT:")) {
+                return -1;
+            }
+            String[] parts = header.split(":");
+            long sequence = Long.parseLong(parts[1]);
+            long size = Long.parseLong(parts[2]);
+            lastProgress.set(System.currentTimeMillis());
+
+            Path tmp = file.resolveSibling(file.getFileName() + ".fetch");
+            try (FileChannel target = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (received.get() < size) {
+                    // Bounded chunks, so the watchdog sees progress on large snapshots
+                    long n = target.transferFrom(channel, received.get(), Math.min(size - received.get(), 1 << 20));
+                    if (n <= 0) throw new IOException("Snapshot transfer ended early");
+                    received.addAndGet(n);
+                    lastProgress.set(System.currentTimeMillis());
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return sequence;
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Malformed snapshot header", e);
+        } finally {
+            if (watchdog != null) {
+                watchdog.cancel(false);
+            }
+            channel.close();
+        }
+    }
+
+    // Reads the header line byte by byte so no snapshot bytes are buffered away from the channel
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            sb.append((char) b);
+        }
+        return b == -1 && sb.length() == 0 ? null : sb.toString();
+    }
+}
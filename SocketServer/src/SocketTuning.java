@@ -0,0 +1,40 @@
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Applies the socket options from ClusterConfig to every socket the cluster opens or accepts:
+ * TCP_NODELAY, send/receive buffer sizes, and SO_REUSEADDR on listening sockets so a restarted
+ * node can bind its port while connections of the previous run are still in TIME_WAIT.
+ */
+public final class SocketTuning {
+
+    private SocketTuning() {
+    }
+
+    /**
+     * Tunes a connected or not-yet-connected socket (buffer sizes are best set before connecting).
+     */
+    public static Socket tune(Socket socket) throws IOException {
+        socket.setTcpNoDelay(ClusterConfig.TCP_NODELAY);
+        if (ClusterConfig.SOCKET_SEND_BUFFER > 0) {
+            socket.setSendBufferSize(ClusterConfig.SOCKET_SEND_BUFFER);
+        }
+        if (ClusterConfig.SOCKET_RECEIVE_BUFFER > 0) {
+            socket.setReceiveBufferSize(ClusterConfig.SOCKET_RECEIVE_BUFFER);
+        }
+        return socket;
+    }
+
+    /**
+     * Tunes a listening socket. Must be called before bind(); accepted sockets inherit the
+     * receive buffer size.
+     */
+    public static ServerSocket tune(ServerSocket serverSocket) throws IOException {
+        serverSocket.setReuseAddress(true);
+        if (ClusterConfig.SOCKET_RECEIVE_BUFFER > 0) {
+            serverSocket.setReceiveBufferSize(ClusterConfig.SOCKET_RECEIVE_BUFFER);
+        }
+        return serverSocket;
+    }
+}
@@ -0,0 +1,53 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A replicated state machine hosted by ServerProcess.
+ * The primary applies each write command and replicates it with a sequence number; backups apply
+ * the same commands in the same order, so every replica ends up in the same state. Implementations
+ * must therefore be deterministic: the result may depend only on the current state and the command.
+ */
+public interface StateMachine {
+
+    /**
+     * @return true if the command only reads state (answered by the primary, never replicated)
+     */
+    boolean isReadOnly(String command);
+
+    /**
+     * Answers a read-only command.
+     */
+    String query(String command);
+
+    /**
+     * Applies a write command.
+     * @return the reply for the client, or null if the command is not one of this state machine's
+     *         (ServerProcess then treats it as a plain message)
+     */
+    String apply(String command);
+
+    /**
+     * Writes the full state into a snapshot.
+     */
+    void writeTo(DataOutputStream out) throws IOException;
+
+    /**
+     * Captures the current state for a snapshot. Called with the server's lock held, so it
+     * should be quick; the returned writer does the slow part (serializing to disk) later,
+     * without any lock, and writes the same bytes writeTo() would have written at capture time.
+     * The default serializes into memory; implementations can copy their state more cheaply.
+     */
+    default SnapshotStore.StateWriter capture() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        writeTo(new DataOutputStream(bytes));
+        byte[] state = bytes.toByteArray();
+        return out -> out.write(state);
+    }
+
+    /**
+     * Replaces the state with one written by writeTo().
+     */
+    void readFrom(DataInputStream in) throws IOException;
+}